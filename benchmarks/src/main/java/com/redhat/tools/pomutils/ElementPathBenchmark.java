@@ -0,0 +1,144 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathExpression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Evaluating the fixed POM paths on one POM with XPath and with
+ * ElementPath. dependencies sets the number of dependencies and
+ * managed dependencies of the POM.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ElementPathBenchmark {
+
+    private static final String[] PATHS={
+        "/project/groupId",
+        "/project/artifactId",
+        "/project/version",
+        "/project/parent/groupId",
+        "/project/parent/artifactId",
+        "/project/parent/version",
+        "/project/modules/module",
+        "/project/properties/*",
+        "/project/dependencies/*",
+        "/project/dependencyManagement/dependencies/*"
+    };
+
+    private static final String[] REL_PATHS={"./groupId","./artifactId","./version"};
+
+    @Param("30")
+    public int dependencies;
+
+    private Element root;
+    private XPathExpression[] xps;
+    private XPathExpression[] xrel;
+    private ElementPath[] eps;
+    private ElementPath[] erel;
+
+    @Setup(Level.Trial)
+    public void createPOM() throws Exception {
+        StringBuilder buf=new StringBuilder();
+        buf.append("<project>\n").
+            append(" <parent><groupId>g</groupId><artifactId>parent</artifactId><version>1.0</version></parent>\n").
+            append(" <groupId>g</groupId><artifactId>a</artifactId><version>1.0</version>\n").
+            append(" <properties>\n");
+        for(int i=0;i<20;i++)
+            buf.append("  <p").append(i).append(">v").append(i).append("</p").append(i).append(">\n");
+        buf.append(" </properties>\n <modules><module>m1</module><module>m2</module></modules>\n");
+        buf.append(" <dependencies>\n");
+        for(int i=0;i<dependencies;i++)
+            buf.append("  <dependency><groupId>g</groupId><artifactId>d").append(i).
+                append("</artifactId><version>1.0</version></dependency>\n");
+        buf.append(" </dependencies>\n <dependencyManagement><dependencies>\n");
+        for(int i=0;i<dependencies;i++)
+            buf.append("  <dependency><groupId>g</groupId><artifactId>m").append(i).
+                append("</artifactId><version>1.0</version></dependency>\n");
+        buf.append(" </dependencies></dependencyManagement>\n</project>\n");
+        Document doc=XML.getDocBuilder().parse(new ByteArrayInputStream(buf.toString().getBytes("UTF-8")));
+        root=doc.getDocumentElement();
+
+        xps=new XPathExpression[PATHS.length];
+        eps=new ElementPath[PATHS.length];
+        for(int i=0;i<PATHS.length;i++) {
+            xps[i]=XML.xpf.newXPath().compile(PATHS[i]);
+            eps[i]=ElementPath.compile(PATHS[i]);
+        }
+        xrel=new XPathExpression[REL_PATHS.length];
+        erel=new ElementPath[REL_PATHS.length];
+        for(int i=0;i<REL_PATHS.length;i++) {
+            xrel[i]=XML.xpf.newXPath().compile(REL_PATHS[i]);
+            erel[i]=ElementPath.compile(REL_PATHS[i]);
+        }
+        // Both must find the same nodes
+        if(xpath()!=elementPath())
+            throw new RuntimeException("XPath and ElementPath results differ");
+    }
+
+    @Benchmark
+    public int xpath() {
+        int n=0;
+        for(XPathExpression x:xps)
+            n+=XML.getElements(root,x).getLength();
+        NodeList deps=XML.getElements(root,xps[8]);
+        for(int i=0;i<deps.getLength();i++)
+            for(XPathExpression x:xrel)
+                n+=XML.getElementText(deps.item(i),x).length();
+        return n;
+    }
+
+    @Benchmark
+    public int elementPath() {
+        int n=0;
+        for(ElementPath p:eps)
+            n+=XML.getElements(root,p).getLength();
+        NodeList deps=XML.getElements(root,eps[8]);
+        for(int i=0;i<deps.getLength();i++)
+            for(ElementPath p:erel)
+                n+=XML.getElementText(deps.item(i),p).length();
+        return n;
+    }
+}
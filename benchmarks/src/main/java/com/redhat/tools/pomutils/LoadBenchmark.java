@@ -0,0 +1,58 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a POM tree, with a DOM (for the commands modifying POMs) or
+ * read-only (-p, -x, -df)
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class LoadBenchmark extends TreeState {
+
+    @Param({"1","4"})
+    public int threads;
+
+    @Param({"false","true"})
+    public boolean readOnly;
+
+    @Benchmark
+    public POM load() throws Exception {
+        POM.allPOMs.clear();
+        POMLoader loader=new POMLoader(threads);
+        loader.setReadOnly(readOnly);
+        return loader.load(rootFile);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * POM.resolve of the end of the property chain, in the last module of
+ * the tree. resolveCached uses the properties cached by the earlier
+ * calls, resolveUncached drops the cached properties of the whole
+ * tree first.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ResolveBenchmark extends TreeState {
+
+    private POM root;
+    private POM leaf;
+    private String expr;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        root=loadTree(false);
+        for(Iterator<POM> itr=root.depthFirstIterator();itr.hasNext();)
+            leaf=itr.next();
+        expr=propertyChain>0?"${p"+(propertyChain-1)+"}":"${project.version}";
+    }
+
+    @Benchmark
+    public String resolveCached() {
+        return leaf.resolve(expr);
+    }
+
+    @Benchmark
+    public String resolveUncached() {
+        root.invalidate();
+        return leaf.resolve(expr);
+    }
+}
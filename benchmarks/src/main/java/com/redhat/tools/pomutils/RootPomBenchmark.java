@@ -0,0 +1,54 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GenerateRootPom.getPOMsToBuild for build.mf.xml, including reading
+ * the manifests and loading the projects of the module map
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class RootPomBenchmark extends TreeState {
+
+    @Benchmark
+    public POM[] getPOMsToBuild() throws Exception {
+        POM.allPOMs.clear();
+        String allManifest=new File(dir,"all.mf.xml").getPath();
+        Manifest mf=new Manifest();
+        mf.parse(new File(allManifest));
+        mf.parse(new File(dir,"build.mf.xml"));
+        return new GenerateRootPom(mf,allManifest,null).getPOMsToBuild();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a synthetic POM tree for the benchmarks. The tree has a root
+ * POM, and modules added breadth first, fanOut modules per POM, until
+ * the tree is depth levels deep or has the requested number of
+ * modules. Module i is in directory mi under its parent, with
+ * artifactId mi and groupId bench.
+ *
+ * The root POM defines a chain of properties p0..pN, each referring to
+ * the previous one, and the dependency versions refer to the last
+ * one. Each module depends on randomly chosen modules before it, so
+ * the dependencies have no cycles. Every POM has fragment directives
+ * for XmlFrag in its build plugins.
+ *
+ * Next to the root POM, the generator writes:
+ * <ul>
+ *   <li>all.mf.xml: a module map with the modules of the root POM as projects</li>
+ *   <li>build.mf.xml: a build set with the first few projects</li>
+ *   <li>versions.txt: a version list for pomutil -f, for every tenth module</li>
+ *   <li>fragments/: the XmlFrag fragments</li>
+ * </ul>
+ *
+ * The same parameters and seed always give the same tree, so results
+ * can be compared between versions.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class TreeGenerator {
+
+    private int depth=3;
+    private int fanOut=8;
+    private int modules=500;
+    private int dependencies=5;
+    private int propertyChain=4;
+    private int fragments=2;
+    private int buildSet=2;
+    private long seed=1;
+
+    public void setDepth(int n) {
+        depth=n;
+    }
+
+    public void setFanOut(int n) {
+        fanOut=n;
+    }
+
+    /**
+     * Sets the maximum number of modules, not counting the root
+     */
+    public void setModules(int n) {
+        modules=n;
+    }
+
+    /**
+     * Sets the number of dependencies of each module
+     */
+    public void setDependencies(int n) {
+        dependencies=n;
+    }
+
+    /**
+     * Sets the length of the property chain the dependency versions
+     * refer to. If 0, versions are written literally.
+     */
+    public void setPropertyChain(int n) {
+        propertyChain=n;
+    }
+
+    /**
+     * Sets the number of fragment directives in each POM
+     */
+    public void setFragments(int n) {
+        fragments=n;
+    }
+
+    /**
+     * Sets the number of projects in build.mf.xml
+     */
+    public void setBuildSet(int n) {
+        buildSet=n;
+    }
+
+    public void setSeed(long seed) {
+        this.seed=seed;
+    }
+
+    /**
+     * Writes the tree under dir, and returns the root POM file
+     */
+    public File generate(File dir) throws IOException {
+        Random rnd=new Random(seed);
+        // parents[i] is the parent of module i, dirs[i] its directory
+        List<Integer> parents=new ArrayList<Integer>();
+        List<File> dirs=new ArrayList<File>();
+        List<Integer> levels=new ArrayList<Integer>();
+        parents.add(-1);
+        dirs.add(dir);
+        levels.add(0);
+        for(int p=0;p<parents.size()&&parents.size()<=modules;p++) {
+            if(levels.get(p)>=depth)
+                continue;
+            for(int i=0;i<fanOut&&parents.size()<=modules;i++) {
+                int m=parents.size();
+                parents.add(p);
+                dirs.add(new File(dirs.get(p),"m"+m));
+                levels.add(levels.get(p)+1);
+            }
+        }
+        int n=parents.size();
+        List<List<Integer>> children=new ArrayList<List<Integer>>(n);
+        for(int i=0;i<n;i++)
+            children.add(new ArrayList<Integer>());
+        for(int i=1;i<n;i++)
+            children.get(parents.get(i)).add(i);
+
+        String version=propertyChain>0?"${p"+(propertyChain-1)+"}":"1.0";
+        for(int i=0;i<n;i++) {
+            StringBuilder buf=new StringBuilder();
+            buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>\n");
+            buf.append("  <modelVersion>4.0.0</modelVersion>\n");
+            if(i==0)
+                buf.append("  <groupId>bench</groupId>\n");
+            else
+                buf.append("  <parent>\n    <groupId>bench</groupId>\n    <artifactId>m").
+                    append(parents.get(i)).append("</artifactId>\n    <version>1.0</version>\n  </parent>\n");
+            buf.append("  <artifactId>m").append(i).append("</artifactId>\n");
+            if(i==0)
+                buf.append("  <version>1.0</version>\n");
+            if(!children.get(i).isEmpty())
+                buf.append("  <packaging>pom</packaging>\n");
+            if(i==0&&propertyChain>0) {
+                buf.append("  <properties>\n    <p0>1.0</p0>\n");
+                for(int k=1;k<propertyChain;k++)
+                    buf.append("    <p").append(k).append(">${p").append(k-1).append("}</p").append(k).append(">\n");
+                buf.append("  </properties>\n");
+            }
+            if(!children.get(i).isEmpty()) {
+                buf.append("  <modules>\n");
+                for(int c:children.get(i))
+                    buf.append("    <module>m").append(c).append("</module>\n");
+                buf.append("  </modules>\n");
+            }
+            if(i>1&&dependencies>0) {
+                buf.append("  <dependencies>\n");
+                for(int k=0;k<dependencies;k++) {
+                    int dep=1+rnd.nextInt(i-1);
+                    buf.append("    <dependency>\n      <groupId>bench</groupId>\n      <artifactId>m").
+                        append(dep).append("</artifactId>\n      <version>").append(version).
+                        append("</version>\n    </dependency>\n");
+                }
+                buf.append("  </dependencies>\n");
+            }
+            if(fragments>0) {
+                buf.append("  <build>\n    <plugins>\n");
+                for(int k=0;k<fragments;k++)
+                    buf.append("      <!-- Fragment: frag").append(k).append(".xml -->\n");
+                buf.append("    </plugins>\n  </build>\n");
+            }
+            buf.append("</project>\n");
+            File d=dirs.get(i);
+            d.mkdirs();
+            write(new File(d,"pom.xml"),buf.toString());
+        }
+
+        StringBuilder mf=new StringBuilder("<manifest>\n  <modulemap>\n");
+        StringBuilder bs=new StringBuilder("<manifest>\n  <buildset>\n");
+        List<Integer> projects=children.get(0);
+        for(int k=0;k<projects.size();k++) {
+            int p=projects.get(k);
+            mf.append("    <module><name>m").append(p).append("</name><pom>m").append(p).
+                append("/pom.xml</pom></module>\n");
+            if(k<buildSet)
+                bs.append("    <module>m").append(p).append("</module>\n");
+        }
+        write(new File(dir,"all.mf.xml"),mf.append("  </modulemap>\n</manifest>\n").toString());
+        write(new File(dir,"build.mf.xml"),bs.append("  </buildset>\n</manifest>\n").toString());
+
+        StringBuilder versions=new StringBuilder();
+        for(int i=1;i<n;i+=10)
+            versions.append("bench:m").append(i).append(":2.0\n");
+        write(new File(dir,"versions.txt"),versions.toString());
+
+        File fragDir=new File(dir,"fragments");
+        fragDir.mkdirs();
+        for(int k=0;k<fragments;k++)
+            write(new File(fragDir,"frag"+k+".xml"),
+                  "<fragment>\n  <plugin>\n    <groupId>bench</groupId>\n    <artifactId>plugin"+k+
+                  "</artifactId>\n    <version>1.0</version>\n  </plugin>\n</fragment>\n");
+        return new File(dir,"pom.xml");
+    }
+
+    private static void write(File f,String s) throws IOException {
+        Files.write(f.toPath(),s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static File createTempDir() throws IOException {
+        return Files.createTempDirectory("pomutils-bench").toFile();
+    }
+
+    /**
+     * Deletes a directory tree
+     */
+    public static void delete(File f) {
+        File[] list=f.listFiles();
+        if(list!=null)
+            for(File x:list)
+                delete(x);
+        f.delete();
+    }
+
+    /**
+     * Writes a tree to a directory:
+     *
+     *   TreeGenerator [-d<depth>] [-f<fanOut>] [-m<modules>] [-k<dependencies>]
+     *                 [-p<propertyChain>] [-g<fragments>] [-b<buildSet>] [-s<seed>] dir
+     */
+    public static void main(String[] args) throws Exception {
+        TreeGenerator g=new TreeGenerator();
+        File dir=null;
+        for(String arg:args) {
+            if(arg.startsWith("-d"))
+                g.setDepth(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-f"))
+                g.setFanOut(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-m"))
+                g.setModules(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-k"))
+                g.setDependencies(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-p"))
+                g.setPropertyChain(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-g"))
+                g.setFragments(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-b"))
+                g.setBuildSet(Integer.parseInt(arg.substring(2)));
+            else if(arg.startsWith("-s"))
+                g.setSeed(Long.parseLong(arg.substring(2)));
+            else
+                dir=new File(arg);
+        }
+        if(dir==null) {
+            System.out.println("TreeGenerator [-d<depth>] [-f<fanOut>] [-m<modules>] [-k<dependencies>]\n"+
+                               "              [-p<propertyChain>] [-g<fragments>] [-b<buildSet>] [-s<seed>] dir");
+            return;
+        }
+        dir.mkdirs();
+        System.out.println(g.generate(dir));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base of the benchmarks: generates a tree with TreeGenerator before
+ * the benchmark, and deletes it after. The shape of the tree is set
+ * with the JMH parameters, e.g. -p modules=2000 -p depth=4. Output
+ * printed by the code being measured is discarded.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@State(Scope.Benchmark)
+public abstract class TreeState {
+
+    @Param("3")
+    public int depth;
+
+    @Param("8")
+    public int fanOut;
+
+    @Param("500")
+    public int modules;
+
+    @Param("5")
+    public int dependencies;
+
+    @Param("4")
+    public int propertyChain;
+
+    protected File dir;
+    protected File rootFile;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void generateTree() throws Exception {
+        TreeGenerator g=new TreeGenerator();
+        g.setDepth(depth);
+        g.setFanOut(fanOut);
+        g.setModules(modules);
+        g.setDependencies(dependencies);
+        g.setPropertyChain(propertyChain);
+        dir=TreeGenerator.createTempDir();
+        rootFile=g.generate(dir);
+        POM.allPOMs.clear();
+        out=System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+                public void write(int b) {}
+                public void write(byte[] b,int off,int len) {}
+            }));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() {
+        System.setOut(out);
+        POM.allPOMs.clear();
+        TreeGenerator.delete(dir);
+    }
+
+    /**
+     * Loads the generated tree into POM.allPOMs
+     */
+    protected POM loadTree(boolean readOnly) throws Exception {
+        POM.allPOMs.clear();
+        POMLoader loader=new POMLoader(1);
+        loader.setReadOnly(readOnly);
+        return loader.load(rootFile);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Version updates in memory: pomutil -v setting the root version, and
+ * pomutil -f with versions.txt. The tree is loaded again before each
+ * call, and nothing is written.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class UpdateBenchmark extends TreeState {
+
+    @Setup(Level.Invocation)
+    public void load() throws Exception {
+        loadTree(false);
+    }
+
+    @Benchmark
+    public boolean setVersion() throws Exception {
+        Artifact a=Artifact.parse("bench:m0:2.0");
+        POM.allPOMs.get("bench:m0").setVersion(a.version);
+        return Main.fixDependencies(new DependencyIndex(POM.allPOMs.values()),a);
+    }
+
+    @Benchmark
+    public boolean updateVersions() throws Exception {
+        VersionUpdate update=new VersionUpdate();
+        BufferedReader reader=new BufferedReader(new FileReader(new File(dir,"versions.txt")));
+        String line;
+        while((line=reader.readLine())!=null)
+            update.add(Artifact.parse(line.trim()));
+        reader.close();
+        return update.apply(POM.allPOMs.values(),1);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.w3c.dom.Document;
+
+/**
+ * XmlFrag.processXML on the root POM: inserting the fragments into a
+ * POM with fragment directives (insert), and checking a POM with the
+ * fragments already inserted (check)
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class XmlFragBenchmark extends TreeState {
+
+    @Param({"insert","check"})
+    public String mode;
+
+    private XmlFrag xmlFrag;
+    private File file;
+    private Document doc;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        xmlFrag=new XmlFrag(new File(dir,"fragments"));
+        file=rootFile;
+        if(mode.equals("check")) {
+            Document d=XML.getDocBuilder().parse(rootFile);
+            xmlFrag.processXML(rootFile,d,false);
+            file=new File(dir,"inserted.xml");
+            XML.write(d,file);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() throws Exception {
+        doc=XML.getDocBuilder().parse(file);
+    }
+
+    @Benchmark
+    public boolean processXML() throws Exception {
+        return xmlFrag.processXML(file,doc,false);
+    }
+}
@@ -0,0 +1,445 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Keeps a POM tree loaded, and runs pomutil commands on it for
+ * clients connecting through a loopback socket (see DaemonClient).
+ *
+ * The daemon listens on a random port of the loopback interface, and
+ * writes the port and a random token into .pomutil/daemon under the
+ * directory of the POM file. Only clients that can read that file can
+ * run commands. Commands are run one at a time, with the output of the
+ * command sent back to the client.
+ *
+ * The daemon keeps the POM tree of its POM file, and the project trees
+ * of the module maps used with -r. The POM tree is kept up to date by
+ * a POMWatcher, which loads the changed POM files again, and the
+ * dependency index of the tree is updated for the changed POMs. The
+ * POM tree is loaded again after a command that failed, or that left
+ * modified POMs unwritten. Before a project tree is used, the sizes and
+ * modification times of its files are checked, and the tree is
+ * loaded again if a file changed on the disk.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class Daemon {
+
+    public static final String INFO_FILE=".pomutil/daemon";
+
+    /**
+     * Options whose values are file names, resolved relative to the
+     * client's working directory
+     */
+    private static final String[] FILE_OPTIONS={"-f","-r","-l","-o","-s","-w","-b","-i","-c"};
+
+    /**
+     * Limits of a request, and how long to wait for a client, in
+     * milliseconds
+     */
+    private static final int MAX_ARGS=4096;
+    private static final int MAX_STDIN=64*1024*1024;
+    private static final int CLIENT_TIMEOUT=30000;
+
+    private final File pomFile;
+    private final int nThreads;
+    private final String token;
+    /**
+     * Held while a command runs, and while the watcher applies changes
+     */
+    private final Object lock=new Object();
+    private POMWatcher watcher;
+    /**
+     * POM.allPOMs for the tree of the POM file, kept by the watcher
+     */
+    private Map<String,POM> rootPOMs;
+    /**
+     * Dependency index of the POM tree, built when first needed
+     */
+    private DependencyIndex index;
+    /**
+     * Loaded module maps, by the canonical path of the manifest
+     */
+    private final Map<String,Resident> trees=new HashMap<String,Resident>();
+    /**
+     * Working directory of the client being served
+     */
+    private File clientDir;
+    private boolean dirty=true;
+    private boolean stopped=false;
+
+    /**
+     * A loaded module map
+     */
+    private static class Resident {
+        ProjectTree tree;
+        Map<String,POM> poms;
+        Map<File,long[]> stamps;
+    }
+
+    /**
+     * @param pomFile The POM tree kept loaded, can be null if the daemon
+     * is only used to generate root POMs
+     */
+    public Daemon(File pomFile,int nThreads) {
+        this.pomFile=pomFile==null?null:pomFile.getAbsoluteFile();
+        this.nThreads=nThreads;
+        byte[] b=new byte[16];
+        new SecureRandom().nextBytes(b);
+        StringBuilder buf=new StringBuilder();
+        for(byte x:b)
+            buf.append(String.format("%02x",x&0xff));
+        token=buf.toString();
+    }
+
+    public File getPomFile() {
+        return pomFile;
+    }
+
+    /**
+     * Returns the working directory of the client whose command is
+     * being run. Relative file names read by the command are relative
+     * to this directory.
+     */
+    public File getClientDir() {
+        return clientDir;
+    }
+
+    /**
+     * Returns the loaded tree, with the changes made on the disk
+     * applied
+     */
+    public POM getRoot() throws Exception {
+        if(pomFile==null)
+            throw new RuntimeException("The daemon was started without a POM file");
+        if(dirty) {
+            if(watcher!=null)
+                watcher.close();
+            watcher=null;
+            index=null;
+            POMLoader loader=new POMLoader(nThreads);
+            POM root=loader.loadUnregistered(pomFile);
+            rootPOMs=new HashMap<String,POM>();
+            watcher=new POMWatcher(root,rootPOMs,loader,lock);
+            watcher.addListener(new POMWatcher.Listener() {
+                    public void replaced(POM oldPom,POM newPom) {
+                        if(index!=null) {
+                            if(oldPom!=null)
+                                index.remove(oldPom);
+                            if(newPom!=null)
+                                index.add(newPom);
+                        }
+                    }
+                });
+            watcher.start();
+            dirty=false;
+        } else
+            watcher.update();
+        POM.allPOMs.clear();
+        POM.allPOMs.putAll(rootPOMs);
+        return watcher.getRoot();
+    }
+
+    /**
+     * Returns the dependency index of the POM tree. It is updated as
+     * POM files change.
+     */
+    public DependencyIndex getDependencyIndex() {
+        if(index==null)
+            index=new DependencyIndex(rootPOMs.values());
+        return index;
+    }
+
+    /**
+     * Updates the dependency index after the dependencies of a POM
+     * are changed in memory
+     */
+    public void reindex(POM pom) {
+        if(index!=null) {
+            index.remove(pom);
+            index.add(pom);
+        }
+    }
+
+    /**
+     * Returns the loaded project tree of a module map, loading it again
+     * if the manifest or a POM file changed since it was loaded. The
+     * POMs of the tree are made available in POM.allPOMs.
+     */
+    public ProjectTree getProjectTree(String allManifest,boolean validate) throws Exception {
+        File mfFile=new File(allManifest).getCanonicalFile();
+        String key=mfFile.getPath()+(validate?" (validated)":"");
+        Resident r=trees.get(key);
+        if(r==null||isStale(r.stamps)) {
+            trees.remove(key);
+            POM.allPOMs.clear();
+            r=new Resident();
+            r.tree=Main.loadProjectTree(allManifest,validate,new POMLoader(nThreads));
+            r.poms=new HashMap<String,POM>(POM.allPOMs);
+            r.stamps=getStamps(r.poms.values());
+            r.stamps.put(mfFile,new long[] {mfFile.length(),mfFile.lastModified()});
+            trees.put(key,r);
+        }
+        POM.allPOMs.clear();
+        POM.allPOMs.putAll(r.poms);
+        return r.tree;
+    }
+
+    private static Map<File,long[]> getStamps(Collection<POM> poms) {
+        Map<File,long[]> map=new HashMap<File,long[]>();
+        for(POM p:poms) {
+            File f=p.getFile();
+            map.put(f,new long[] {f.length(),f.lastModified()});
+        }
+        return map;
+    }
+
+    private static boolean isStale(Map<File,long[]> stamps) {
+        if(stamps==null)
+            return true;
+        for(Map.Entry<File,long[]> entry:stamps.entrySet()) {
+            File f=entry.getKey();
+            long[] stamp=entry.getValue();
+            if(f.length()!=stamp[0]||f.lastModified()!=stamp[1])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Listens for clients until a client sends --stop
+     */
+    public void run() throws Exception {
+        File dir;
+        if(pomFile!=null) {
+            synchronized(lock) {
+                getRoot();
+            }
+            dir=pomFile.getParentFile();
+        } else
+            dir=new File(System.getProperty("user.dir"));
+        ServerSocket server=new ServerSocket(0,50,InetAddress.getLoopbackAddress());
+        File info=new File(dir,INFO_FILE);
+        writeInfo(info,server.getLocalPort());
+        System.out.println("Listening on port "+server.getLocalPort()+" for "+
+                           (pomFile==null?dir:pomFile));
+        try {
+            while(!stopped) {
+                Socket socket=server.accept();
+                try {
+                    socket.setSoTimeout(CLIENT_TIMEOUT);
+                    serve(socket);
+                } catch (IOException e) {
+                    System.err.println("Client error:"+e);
+                } catch (RuntimeException e) {
+                    // A bad request does not stop the daemon
+                    System.err.println("Client error:"+e);
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            server.close();
+            info.delete();
+        }
+    }
+
+    /**
+     * Writes the port and the token. The file is readable only by the
+     * owner from the moment it is created: it is written to a
+     * temporary file created with owner-only permissions, and renamed.
+     */
+    private void writeInfo(File info,int port) throws IOException {
+        Path dir=info.getAbsoluteFile().getParentFile().toPath();
+        boolean posix=dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if(!Files.isDirectory(dir)) {
+            if(posix)
+                Files.createDirectories(dir,PosixFilePermissions.
+                                        asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            else
+                Files.createDirectories(dir);
+        }
+        Path tmp=posix?
+            Files.createTempFile(dir,info.getName(),".tmp",PosixFilePermissions.
+                                 asFileAttribute(PosixFilePermissions.fromString("rw-------"))):
+            Files.createTempFile(dir,info.getName(),".tmp");
+        try {
+            Files.write(tmp,(port+"\n"+token+"\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp,info.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp,info.toPath(),StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads a request: token, working directory, arguments, and
+     * stdin contents. Writes the exit status and the output.
+     */
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in=new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out=new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        String clientToken=in.readUTF();
+        ByteArrayOutputStream output=new ByteArrayOutputStream();
+        int status;
+        if(!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                                  clientToken.getBytes(StandardCharsets.UTF_8))) {
+            // Nothing else is read from a client without the token
+            output.write("Invalid token\n".getBytes(StandardCharsets.UTF_8));
+            status=1;
+        } else {
+            String cwd=in.readUTF();
+            int argc=in.readInt();
+            if(argc<0||argc>MAX_ARGS)
+                throw new IOException("Invalid number of arguments:"+argc);
+            String[] args=new String[argc];
+            for(int i=0;i<argc;i++)
+                args[i]=in.readUTF();
+            int stdinLength=in.readInt();
+            if(stdinLength<0||stdinLength>MAX_STDIN)
+                throw new IOException("Invalid input length:"+stdinLength);
+            byte[] stdin=new byte[stdinLength];
+            in.readFully(stdin);
+
+            if(argc==1&&args[0].equals("--stop")) {
+                output.write("Stopped\n".getBytes(StandardCharsets.UTF_8));
+                stopped=true;
+                status=0;
+            } else {
+                clientDir=new File(cwd);
+                status=execute(absolutize(args,clientDir),stdin,output);
+            }
+        }
+        out.writeInt(status);
+        byte[] b=output.toByteArray();
+        out.writeInt(b.length);
+        out.write(b);
+        out.flush();
+    }
+
+    /**
+     * Runs a command with stdout and stderr redirected to output
+     */
+    private int execute(String[] args,byte[] stdin,ByteArrayOutputStream output) {
+        PrintStream oldOut=System.out;
+        PrintStream oldErr=System.err;
+        InputStream oldIn=System.in;
+        PrintStream ps=new PrintStream(output,true);
+        System.setOut(ps);
+        System.setErr(ps);
+        System.setIn(new ByteArrayInputStream(stdin));
+        int status=0;
+        // The watcher does not change the tree while the command runs,
+        // even if the command loads the tree and starts a new watcher
+        synchronized(lock) {
+            try {
+                Main.run(args,this);
+            } catch (Throwable t) {
+                t.printStackTrace(ps);
+                status=1;
+                dirty=true;
+            } finally {
+                ps.flush();
+                System.setOut(oldOut);
+                System.setErr(oldErr);
+                System.setIn(oldIn);
+                POM.allPOMs.clear();
+            }
+            if(!dirty&&rootPOMs!=null) {
+                for(POM p:rootPOMs.values())
+                    if(p.isModified())
+                        dirty=true;
+                // Files written by the command are what is in memory
+                if(!dirty)
+                    watcher.restamp();
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Makes file arguments absolute using the client's working
+     * directory. If a root POM is generated without -l, the
+     * all.mf.xml of the working directory is used.
+     */
+    static String[] absolutize(String[] args,File cwd) {
+        List<String> list=new ArrayList<String>(args.length+1);
+        boolean generate=false;
+        boolean allManifest=false;
+        for(String arg:args) {
+            if(arg.startsWith("-r"))
+                generate=true;
+            if(arg.startsWith("-l"))
+                allManifest=true;
+            if(!arg.startsWith("-"))
+                arg=resolve(cwd,arg);
+            else if(!arg.startsWith("-df")&&!arg.startsWith("-dr")&&!arg.startsWith("-xp"))
+                for(String opt:FILE_OPTIONS)
+                    if(arg.startsWith(opt)&&arg.length()>opt.length()&&!arg.startsWith("--")) {
+                        arg=opt+resolve(cwd,arg.substring(opt.length()));
+                        break;
+                    }
+            list.add(arg);
+        }
+        if(generate&&!allManifest)
+            list.add("-l"+resolve(cwd,"all.mf.xml"));
+        return list.toArray(new String[list.size()]);
+    }
+
+    private static String resolve(File cwd,String path) {
+        File f=new File(path);
+        return f.isAbsolute()?path:new File(cwd,path).getPath();
+    }
+}
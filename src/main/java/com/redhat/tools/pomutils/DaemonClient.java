@@ -0,0 +1,121 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.List;
+
+/**
+ * Sends a command to a running Daemon, and prints its output. The
+ * arguments are the same as those of pomutil. This class does not
+ * use the XML classes, so the client starts quickly.
+ *
+ * The daemon is found through the .pomutil/daemon file in the
+ * directory of the POM file given in the arguments, or the current
+ * directory, or one of their parents.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class DaemonClient {
+
+    /**
+     * Runs the command, and returns the exit status
+     */
+    public static int run(String[] args) throws IOException {
+        File info=findInfo(args);
+        if(info==null)
+            throw new RuntimeException("Cannot find "+Daemon.INFO_FILE+
+                                       ", start a daemon with pomutil <pomfile> --daemon");
+        List<String> lines=Files.readAllLines(info.toPath(),StandardCharsets.UTF_8);
+        int port=Integer.parseInt(lines.get(0).trim());
+        String token=lines.get(1).trim();
+
+        // Only -i without a file reads stdin
+        byte[] stdin=new byte[0];
+        for(String arg:args)
+            if(arg.equals("-i"))
+                stdin=readAll(System.in);
+
+        Socket socket;
+        try {
+            socket=new Socket(InetAddress.getLoopbackAddress(),port);
+        } catch (ConnectException e) {
+            throw new RuntimeException("Cannot connect to the daemon on port "+port+
+                                       ", remove "+info+" if it is not running");
+        }
+        try {
+            DataOutputStream out=new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(new File(System.getProperty("user.dir")).getAbsolutePath());
+            out.writeInt(args.length);
+            for(String arg:args)
+                out.writeUTF(arg);
+            out.writeInt(stdin.length);
+            out.write(stdin);
+            out.flush();
+
+            DataInputStream in=new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int status=in.readInt();
+            byte[] output=new byte[in.readInt()];
+            in.readFully(output);
+            System.out.write(output);
+            System.out.flush();
+            return status;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static File findInfo(String[] args) {
+        File dir=new File(System.getProperty("user.dir")).getAbsoluteFile();
+        for(String arg:args)
+            if(!arg.startsWith("-")&&new File(arg).isFile())
+                dir=new File(arg).getAbsoluteFile().getParentFile();
+        for(;dir!=null;dir=dir.getParentFile()) {
+            File f=new File(dir,Daemon.INFO_FILE);
+            if(f.isFile())
+                return f;
+        }
+        return null;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream buf=new ByteArrayOutputStream();
+        byte[] b=new byte[8192];
+        int n;
+        while((n=in.read(b))>0)
+            buf.write(b,0,n);
+        return buf.toByteArray();
+    }
+}
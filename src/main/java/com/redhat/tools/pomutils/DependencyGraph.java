@@ -0,0 +1,236 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Dependency graph of the POMs in a tree. Each POM gets an index, and
+ * for each POM, the indexes of the POMs it depends on (forward edges)
+ * and of the POMs depending on it (reverse edges) are kept as
+ * arrays. Only direct dependencies on POMs of the tree are edges,
+ * dependencies on other artifacts are ignored. Dependencies are
+ * matched by groupId:artifactId as written in the POM.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class DependencyGraph {
+
+    private final POM[] poms;
+    private final Map<String,Integer> indexes;
+    private final int[][] dependencies;
+    private final int[][] dependents;
+
+    public DependencyGraph(Collection<POM> pomList) {
+        poms=pomList.toArray(new POM[pomList.size()]);
+        int n=poms.length;
+        indexes=new HashMap<String,Integer>(n*2);
+        for(int i=0;i<n;i++)
+            indexes.put(poms[i].getId(),i);
+
+        dependencies=new int[n][];
+        int[] nDependents=new int[n];
+        int[] buf=new int[16];
+        boolean[] seen=new boolean[n];
+        for(int i=0;i<n;i++) {
+            int k=0;
+            for(Artifact a:poms[i].getDependencyArtifacts()) {
+                Integer d=indexes.get(a.groupId+":"+a.artifactId);
+                if(d!=null&&d!=i&&!seen[d]) {
+                    seen[d]=true;
+                    if(k==buf.length)
+                        buf=Arrays.copyOf(buf,k*2);
+                    buf[k++]=d;
+                    nDependents[d]++;
+                }
+            }
+            dependencies[i]=Arrays.copyOf(buf,k);
+            for(int j=0;j<k;j++)
+                seen[buf[j]]=false;
+        }
+
+        dependents=new int[n][];
+        for(int i=0;i<n;i++)
+            dependents[i]=new int[nDependents[i]];
+        int[] fill=new int[n];
+        for(int i=0;i<n;i++)
+            for(int d:dependencies[i])
+                dependents[d][fill[d]++]=i;
+    }
+
+    public int size() {
+        return poms.length;
+    }
+
+    public POM getPOM(int index) {
+        return poms[index];
+    }
+
+    /**
+     * Returns the index of the POM groupId:artifactId, or -1 if it is
+     * not in the graph
+     */
+    public int indexOf(String id) {
+        Integer i=indexes.get(id);
+        return i==null?-1:i;
+    }
+
+    /**
+     * Returns the indexes of the POMs the POM at index depends on. Do
+     * not modify the returned array.
+     */
+    public int[] getDependencies(int index) {
+        return dependencies[index];
+    }
+
+    /**
+     * Returns the indexes of the POMs depending on the POM at
+     * index. Do not modify the returned array.
+     */
+    public int[] getDependents(int index) {
+        return dependents[index];
+    }
+
+    /**
+     * Returns the POMs at the given indexes, and all the POMs
+     * depending on them directly or indirectly, as a flag for each index
+     */
+    public boolean[] getDependentClosure(int[] start) {
+        boolean[] reached=new boolean[poms.length];
+        int[] queue=new int[poms.length];
+        int head=0,tail=0;
+        for(int i:start)
+            if(!reached[i]) {
+                reached[i]=true;
+                queue[tail++]=i;
+            }
+        while(head<tail) {
+            for(int d:dependents[queue[head++]])
+                if(!reached[d]) {
+                    reached[d]=true;
+                    queue[tail++]=d;
+                }
+        }
+        return reached;
+    }
+
+    /**
+     * Returns the strongly connected components of the graph with the
+     * given forward edges, using Tarjan's algorithm. A component with
+     * more than one node is a dependency cycle. Components are
+     * returned so that a component comes after all the components it
+     * has edges to, i.e. in build order.
+     */
+    public static int[][] getComponents(int[][] edges) {
+        int n=edges.length;
+        int[] index=new int[n];
+        Arrays.fill(index,-1);
+        int[] low=new int[n];
+        boolean[] onStack=new boolean[n];
+        int[] stack=new int[n];
+        int sp=0;
+        // Explicit call stack: node, and the next edge to visit
+        int[] callNode=new int[n];
+        int[] callEdge=new int[n];
+        int counter=0;
+        List<int[]> components=new ArrayList<int[]>();
+        for(int s=0;s<n;s++) {
+            if(index[s]>=0)
+                continue;
+            int csp=0;
+            index[s]=low[s]=counter++;
+            stack[sp++]=s;
+            onStack[s]=true;
+            callNode[csp]=s;
+            callEdge[csp++]=0;
+            while(csp>0) {
+                int v=callNode[csp-1];
+                if(callEdge[csp-1]<edges[v].length) {
+                    int w=edges[v][callEdge[csp-1]++];
+                    if(index[w]<0) {
+                        index[w]=low[w]=counter++;
+                        stack[sp++]=w;
+                        onStack[w]=true;
+                        callNode[csp]=w;
+                        callEdge[csp++]=0;
+                    } else if(onStack[w])
+                        low[v]=Math.min(low[v],index[w]);
+                } else {
+                    csp--;
+                    if(low[v]==index[v]) {
+                        int k=sp;
+                        while(stack[--k]!=v);
+                        int[] component=Arrays.copyOfRange(stack,k,sp);
+                        for(int x:component)
+                            onStack[x]=false;
+                        sp=k;
+                        components.add(component);
+                    }
+                    if(csp>0) {
+                        int u=callNode[csp-1];
+                        low[u]=Math.min(low[u],low[v]);
+                    }
+                }
+            }
+        }
+        return components.toArray(new int[components.size()][]);
+    }
+
+    /**
+     * Groups the nodes of the graph with the given forward edges into
+     * waves: the nodes of a wave only have edges to nodes in earlier
+     * waves, or to nodes of the same strongly connected component
+     * (see getComponents()), which are always in the same wave. Each
+     * wave is sorted.
+     */
+    public static int[][] getWaves(int[][] edges,int[][] components) {
+        int n=edges.length;
+        int[] componentOf=new int[n];
+        for(int c=0;c<components.length;c++)
+            for(int x:components[c])
+                componentOf[x]=c;
+        int[] level=new int[components.length];
+        int nLevels=0;
+        int[] size=new int[n+1];
+        for(int c=0;c<components.length;c++) {
+            int l=0;
+            for(int x:components[c])
+                for(int d:edges[x])
+                    if(componentOf[d]!=c)
+                        l=Math.max(l,level[componentOf[d]]+1);
+            level[c]=l;
+            nLevels=Math.max(nLevels,l+1);
+            size[l]+=components[c].length;
+        }
+        int[][] waves=new int[nLevels][];
+        for(int l=0;l<nLevels;l++)
+            waves[l]=new int[size[l]];
+        int[] fill=new int[nLevels];
+        for(int x=0;x<n;x++) {
+            int l=level[componentOf[x]];
+            waves[l][fill[l]++]=x;
+        }
+        return waves;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Index of the places an artifact is referenced in a POM tree. For
+ * every groupId:artifactId, keeps the &lt;dependency&gt; elements under
+ * dependencies and dependencyManagement, and the &lt;parent&gt;
+ * elements referring to it. The groupId and artifactId are matched as
+ * written in the POM, without resolving properties.
+ *
+ * The index is built from the DOM, so the POMs must not be read-only.
+ * References are kept in the order of the POM collection it is built
+ * from, and within a POM, in the order dependencies,
+ * dependencyManagement, parent.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class DependencyIndex {
+
+    public static final int DEPENDENCY=0;
+    public static final int DEPENDENCY_MANAGEMENT=1;
+    public static final int PARENT=2;
+
+    public static class Reference {
+        public final POM pom;
+        /**
+         * The dependency or parent element
+         */
+        public final Element element;
+        public final int kind;
+
+        public Reference(POM pom,Element element,int kind) {
+            this.pom=pom;
+            this.element=element;
+            this.kind=kind;
+        }
+    }
+
+    private final Map<String,List<Reference>> references=new HashMap<String,List<Reference>>();
+    /**
+     * The groupId:artifactId keys each POM is indexed under
+     */
+    private final Map<POM,List<String>> keys=new IdentityHashMap<POM,List<String>>();
+
+    public DependencyIndex(Collection<POM> poms) {
+        for(POM pom:poms)
+            add(pom);
+    }
+
+    /**
+     * Adds the references in a POM to the index. Used to update the
+     * index when a POM is loaded again.
+     */
+    public void add(POM pom) {
+        addDependencies(pom,pom.getDependencies(),DEPENDENCY);
+        addDependencies(pom,pom.getDependencyManagement(),DEPENDENCY_MANAGEMENT);
+        Element parent=XML.getElement(pom.doc,XML.xp_parent);
+        if(parent!=null) {
+            String groupId=XML.getElementText(parent,XML.xp_rel_groupId);
+            String artifactId=XML.getElementText(parent,XML.xp_rel_artifactId);
+            if(groupId!=null&&artifactId!=null)
+                addReference(groupId,artifactId,new Reference(pom,parent,PARENT));
+        }
+    }
+
+    private void addDependencies(POM pom,NodeList dependencies,int kind) {
+        int n=dependencies.getLength();
+        for(int i=0;i<n;i++) {
+            Element el=(Element)dependencies.item(i);
+            if(el.getTagName().equals("dependency")) {
+                String groupId=XML.getElementText(el,XML.xp_rel_groupId);
+                String artifactId=XML.getElementText(el,XML.xp_rel_artifactId);
+                if(groupId!=null&&artifactId!=null)
+                    addReference(groupId,artifactId,new Reference(pom,el,kind));
+            }
+        }
+    }
+
+    private void addReference(String groupId,String artifactId,Reference ref) {
+        String id=groupId+":"+artifactId;
+        List<Reference> list=references.get(id);
+        if(list==null) {
+            list=new ArrayList<Reference>(4);
+            references.put(id,list);
+        }
+        list.add(ref);
+        List<String> pomKeys=keys.get(ref.pom);
+        if(pomKeys==null) {
+            pomKeys=new ArrayList<String>(4);
+            keys.put(ref.pom,pomKeys);
+        }
+        pomKeys.add(id);
+    }
+
+    /**
+     * Removes the references in a POM from the index. Only the
+     * entries of the artifacts the POM refers to are visited.
+     */
+    public void remove(POM pom) {
+        List<String> pomKeys=keys.remove(pom);
+        if(pomKeys==null)
+            return;
+        for(String id:pomKeys) {
+            List<Reference> list=references.get(id);
+            if(list==null)
+                continue;
+            for(Iterator<Reference> itr=list.iterator();itr.hasNext();)
+                if(itr.next().pom==pom)
+                    itr.remove();
+            if(list.isEmpty())
+                references.remove(id);
+        }
+    }
+
+    /**
+     * Returns the references to groupId:artifactId, or an empty list
+     */
+    public List<Reference> getReferences(String groupId,String artifactId) {
+        List<Reference> list=references.get(groupId+":"+artifactId);
+        if(list==null)
+            return Collections.emptyList();
+        return list;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.Element;
+import org.w3c.dom.Document;
+
+/**
+ * A simple path of child element steps, evaluated by walking element
+ * children instead of running an XPath. Supports the subset of XPath
+ * used for the fixed paths in XML:
+ * <pre>
+ *   /project/parent/version    absolute, starts at the document
+ *   ./artifactId               relative to the context node
+ *   /project/properties/*      '*' matches any element
+ * </pre>
+ * Matches are returned in document order, the same as the equivalent
+ * XPath. Unlike XPathExpression, an ElementPath is immutable and can
+ * be shared between threads.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class ElementPath {
+
+    private static final String ANY="*";
+
+    private final String path;
+    private final boolean absolute;
+    private final String[] steps;
+
+    private ElementPath(String path,boolean absolute,String[] steps) {
+        this.path=path;
+        this.absolute=absolute;
+        this.steps=steps;
+    }
+
+    public static ElementPath compile(String path) {
+        boolean absolute;
+        String s;
+        if(path.startsWith("/")) {
+            absolute=true;
+            s=path.substring(1);
+        } else if(path.startsWith("./")) {
+            absolute=false;
+            s=path.substring(2);
+        } else {
+            absolute=false;
+            s=path;
+        }
+        String[] steps=s.split("/");
+        for(String step:steps)
+            if(step.length()==0)
+                throw new IllegalArgumentException("Invalid path:"+path);
+        for(int i=0;i<steps.length;i++)
+            if(steps[i].equals(ANY))
+                steps[i]=ANY;
+        return new ElementPath(path,absolute,steps);
+    }
+
+    /**
+     * Returns the first element matching the path, or null
+     */
+    public Element getElement(Node context) {
+        if(Stats.enabled)
+            Stats.path(this);
+        if(absolute) {
+            Element root=getDocumentElement(context);
+            if(root==null||!matches(root,steps[0]))
+                return null;
+            return first(root,1);
+        } else
+            return first(context,0);
+    }
+
+    /**
+     * Returns all elements matching the path in document order
+     */
+    public List<Element> getElements(Node context) {
+        if(Stats.enabled)
+            Stats.path(this);
+        List<Element> list=new ArrayList<Element>();
+        if(absolute) {
+            Element root=getDocumentElement(context);
+            if(root!=null&&matches(root,steps[0])) {
+                if(steps.length==1)
+                    list.add(root);
+                else
+                    collect(root,1,list);
+            }
+        } else
+            collect(context,0,list);
+        return list;
+    }
+
+    private static Element getDocumentElement(Node context) {
+        Document doc=context.getNodeType()==Node.DOCUMENT_NODE?
+            (Document)context:context.getOwnerDocument();
+        return doc==null?null:doc.getDocumentElement();
+    }
+
+    private static boolean matches(Node node,String step) {
+        return node.getNodeType()==Node.ELEMENT_NODE&&
+            (step==ANY||step.equals(node.getNodeName()));
+    }
+
+    private Element first(Node node,int step) {
+        if(step==steps.length)
+            return (Element)node;
+        for(Node child=node.getFirstChild();child!=null;child=child.getNextSibling()) {
+            if(matches(child,steps[step])) {
+                Element el=first(child,step+1);
+                if(el!=null)
+                    return el;
+            }
+        }
+        return null;
+    }
+
+    private void collect(Node node,int step,List<Element> list) {
+        boolean last=step==steps.length-1;
+        for(Node child=node.getFirstChild();child!=null;child=child.getNextSibling()) {
+            if(matches(child,steps[step])) {
+                if(last)
+                    list.add((Element)child);
+                else
+                    collect(child,step+1,list);
+            }
+        }
+    }
+
+    public String toString() {
+        return path;
+    }
+}
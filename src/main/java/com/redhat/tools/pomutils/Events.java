@@ -0,0 +1,127 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+
+/**
+ * Java Flight Recorder events for parsing, build set computation,
+ * version updates, writing, and fragment replacement.
+ *
+ * This is the Java 8 version, and it records nothing. The jar is a
+ * multi-release jar: on Java 11 and later, the version of this class
+ * in src/main/java11 is used, which records the events when a
+ * recording is active. Classes run from target/classes always use
+ * this version.
+ *
+ * An event is started with a begin method, and finished with the
+ * matching end method:
+ * <pre>
+ *    Object e=Events.beginParse();
+ *    ...
+ *    Events.endParse(e,file,true);
+ * </pre>
+ * The begin methods return null if the event is not recorded, and the
+ * end methods do nothing for null, so callers can skip computing the
+ * event values if the event is null.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class Events {
+
+    /**
+     * Starts a parse event
+     */
+    public static Object beginParse() {
+        return null;
+    }
+
+    /**
+     * Records the parse of file
+     *
+     * @param dom true if a DOM is built, false if the file is read by
+     * the streaming parser
+     */
+    public static void endParse(Object event,File file,boolean dom) {
+    }
+
+    /**
+     * Starts a build set event
+     */
+    public static Object beginBuildSet() {
+        return null;
+    }
+
+    /**
+     * Records the computation of the projects to build
+     *
+     * @param artifacts The number of artifacts in the build set
+     * @param projects The number of projects to build
+     */
+    public static void endBuildSet(Object event,int artifacts,int projects) {
+    }
+
+    /**
+     * Starts a version update event
+     */
+    public static Object beginVersionUpdate() {
+        return null;
+    }
+
+    /**
+     * Records a batch of version edits
+     *
+     * @param artifacts The number of artifacts whose versions are set
+     * @param poms The number of POMs checked
+     * @param changed The number of POMs changed
+     */
+    public static void endVersionUpdate(Object event,int artifacts,int poms,int changed) {
+    }
+
+    /**
+     * Starts a write event
+     */
+    public static Object beginWrite() {
+        return null;
+    }
+
+    /**
+     * Records a file written
+     */
+    public static void endWrite(Object event,File file,long bytes,boolean sync) {
+    }
+
+    /**
+     * Starts a fragment event
+     */
+    public static Object beginFragment() {
+        return null;
+    }
+
+    /**
+     * Records a fragment directive processed
+     *
+     * @param file The XML file
+     * @param fragment The fragment file name
+     * @param result What was done: inserted, replaced, unchanged, or
+     * modified if the fragment was edited in the file
+     */
+    public static void endFragment(Object event,File file,String fragment,String result) {
+    }
+}
@@ -0,0 +1,160 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of the hashes of XmlFrag fragment files. Entries
+ * are keyed by the canonical path of the fragment file, and are valid
+ * as long as the file has the same size and modification time. With
+ * the index, a fragment file is parsed only if its content is
+ * inserted into a file, and not to check whether an inserted fragment
+ * is up to date.
+ *
+ * The index is read once with load(), and written back with save()
+ * if anything changed. Lookups are thread safe.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class FragmentIndex {
+
+    /**
+     * Default index file location, relative to the fragment directory
+     */
+    public static final String DEFAULT_FILE=".xmlfrag"+File.separator+"fragments.index";
+
+    private static final int MAGIC=0x46524149;
+    private static final int VERSION=1;
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        public Entry(long size,long lastModified,String hash) {
+            this.size=size;
+            this.lastModified=lastModified;
+            this.hash=hash;
+        }
+    }
+
+    private final File indexFile;
+    private final Map<String,Entry> entries=new ConcurrentHashMap<String,Entry>();
+    private volatile boolean modified=false;
+
+    public FragmentIndex(File indexFile) {
+        this.indexFile=indexFile;
+    }
+
+    public File getFile() {
+        return indexFile;
+    }
+
+    /**
+     * Reads the index file. A missing, unreadable or old format index
+     * file results in an empty index.
+     */
+    public void load() {
+        entries.clear();
+        if(!indexFile.isFile())
+            return;
+        try {
+            DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if(in.readInt()!=MAGIC||in.readInt()!=VERSION)
+                    return;
+                int n=in.readInt();
+                for(int i=0;i<n;i++) {
+                    String path=in.readUTF();
+                    long size=in.readLong();
+                    long lastModified=in.readLong();
+                    entries.put(path,new Entry(size,lastModified,in.readUTF()));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Truncated or corrupt index, start over
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the index file if it was modified since it was loaded.
+     * The file is written to a temporary file first, and renamed.
+     */
+    public void save() throws IOException {
+        if(!modified)
+            return;
+        File dir=indexFile.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory()&&!dir.mkdirs())
+            throw new IOException("Cannot create "+dir);
+        File tmp=new File(dir,indexFile.getName()+".tmp");
+        DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for(Map.Entry<String,Entry> x:entries.entrySet()) {
+                Entry e=x.getValue();
+                out.writeUTF(x.getKey());
+                out.writeLong(e.size);
+                out.writeLong(e.lastModified);
+                out.writeUTF(e.hash);
+            }
+        } finally {
+            out.close();
+        }
+        if(!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if(!tmp.renameTo(indexFile))
+                throw new IOException("Cannot rename "+tmp+" to "+indexFile);
+        }
+        modified=false;
+    }
+
+    /**
+     * Returns the hash of the fragment file with the given canonical
+     * path, size and modification time, or null if it is not in the
+     * index, or the file changed
+     */
+    public String getHash(String path,long size,long lastModified) {
+        Entry e=entries.get(path);
+        if(e!=null&&e.size==size&&e.lastModified==lastModified)
+            return e.hash;
+        return null;
+    }
+
+    public void put(String path,long size,long lastModified,String hash) {
+        entries.put(path,new Entry(size,lastModified,hash));
+        modified=true;
+    }
+}
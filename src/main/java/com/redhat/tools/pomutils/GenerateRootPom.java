@@ -32,59 +32,38 @@ import org.w3c.dom.Node;
 public class GenerateRootPom {
 
     private final Manifest mf;
-    private final HashMap<String,POM> pomMap=new HashMap<String,POM>();
-    private final File allManifest;
+    private final ProjectTree tree;
     private final String skeleton;
+    private List<File> changedFiles;
+    private PrintStream out=System.out;
 
     public GenerateRootPom(Manifest mf,String allManifest,String skeleton) {
+        this(new ProjectTree(mf,new File(allManifest)),mf,skeleton);
+    }
+
+    /**
+     * Creates a root POM generator for the build set of mf, using the
+     * projects of tree. Several generators can share a tree, and run
+     * concurrently.
+     */
+    public GenerateRootPom(ProjectTree tree,Manifest mf,String skeleton) {
         this.mf=mf;
-        this.allManifest=new File(allManifest);
+        this.tree=tree;
         this.skeleton=skeleton;
     }
 
+    /**
+     * Sets the stream the build set and other information is printed to
+     */
+    public void setOutput(PrintStream out) {
+        this.out=out;
+    }
+
 
     private static void addAllArtifacts(Set<String> set,POM root) {
         set.add(root.getId());
-        for(Iterator itr=root.depthFirstIterator();itr.hasNext();)
-            set.add(((POM)itr.next()).getId());
-    }
-
-    private static String[] findDependentArtifacts(String artifact) {
-        POM pom=POM.allPOMs.get(artifact);
-        NodeList nl=pom.getDependencies();
-        int n=nl.getLength();
-        Set<String> artifacts=new HashSet<String>();
-        for(int i=0;i<n;i++) {
-            Element el=(Element)nl.item(i);
-            String depArtifactId=XML.getElementText(el,XML.xp_rel_artifactId);
-            String depGroupId=XML.getElementText(el,XML.xp_rel_groupId);
-            POM depPom=POM.allPOMs.get(depGroupId+":"+depArtifactId);
-            if(depPom!=null)
-                artifacts.add(depPom.getId());
-        }
-        return artifacts.toArray(new String[artifacts.size()]);
-    }
-
-    private static String[] findArtifactsDependingOn(String artifact) {
-        int index=artifact.indexOf(':');
-        String groupId=artifact.substring(0,index);
-        String artifactId=artifact.substring(index+1);
-        Set<String> artifacts=new HashSet<String>();
-        for(POM pom:POM.allPOMs.values()) {
-            NodeList dependencies=pom.getDependencies();
-            int n=dependencies.getLength();
-            for(int i=0;i<n;i++) {
-                Element el=(Element)dependencies.item(i);
-                String depArtifactId=XML.getElementText(el,XML.xp_rel_artifactId);
-                String depGroupId=XML.getElementText(el,XML.xp_rel_groupId);
-                if(depArtifactId.equals(artifactId)&&
-                   depGroupId.equals(groupId)) {
-                    artifacts.add(pom.getId());
-                    break;
-                }
-            }
-        }
-        return artifacts.toArray(new String[artifacts.size()]);
+        for(Iterator<POM> itr=root.depthFirstIterator();itr.hasNext();)
+            set.add(itr.next().getId());
     }
 
     private static POM[] getRootPoms(Set<String> artifacts) {
@@ -97,15 +76,219 @@ public class GenerateRootPom {
         return set.toArray(new POM[set.size()]);
     }
 
-    private String getPomPath(POM p) {
-        for(Map.Entry<String,POM> entry:pomMap.entrySet()) {
-            if(entry.getValue()==p) {
-                String s=mf.getPOMForProject(entry.getKey());
-                File f=new File(s);
-                return f.getParent();
+    /**
+     * Sets the files changed since the last build. The modules
+     * containing these files are added to the build set, in addition
+     * to the build set of the manifest.
+     */
+    public void setChangedFiles(List<File> files) {
+        changedFiles=files;
+    }
+
+    /**
+     * Adds the ids of the modules containing the changed files to buildSet
+     */
+    private void addChangedModules(Set<String> buildSet) {
+        ModuleLocator locator=tree.getLocator();
+        int unowned=0;
+        for(File f:changedFiles) {
+            POM p=locator.find(f);
+            if(p!=null)
+                buildSet.add(p.getId());
+            else
+                unowned++;
+        }
+        if(unowned>0)
+            out.println(unowned+" changed files are not in any module");
+    }
+
+    /**
+     * Groups the projects into build waves. A project only depends on
+     * projects of earlier waves, so the projects of a wave can be
+     * built concurrently once the earlier waves are built. Projects in
+     * a dependency cycle are put into the same wave, and the cycle is
+     * reported. Within a wave, projects are in the order of rootPoms.
+     */
+    public List<POM[]> getBuildWaves(POM[] rootPoms) {
+        int[][] edges=getProjectEdges(rootPoms);
+        int[][] components=DependencyGraph.getComponents(edges);
+        for(int[] component:components)
+            if(component.length>1) {
+                StringBuilder buf=new StringBuilder("Dependency cycle between projects:");
+                for(int p:component)
+                    buf.append(' ').append(rootPoms[p].getId());
+                out.println(buf.toString());
+            }
+        List<POM[]> waves=new ArrayList<POM[]>();
+        for(int[] wave:DependencyGraph.getWaves(edges,components)) {
+            POM[] arr=new POM[wave.length];
+            for(int i=0;i<wave.length;i++)
+                arr[i]=rootPoms[wave[i]];
+            waves.add(arr);
+        }
+        return waves;
+    }
+
+    /**
+     * Returns the dependencies between projects: for each project in
+     * rootPoms, the indexes of the projects it depends on. A project
+     * depends on another if one of its POMs depends on a POM of the
+     * other.
+     */
+    private int[][] getProjectEdges(POM[] rootPoms) {
+        DependencyGraph g=tree.getGraph();
+        // The project of every POM in the graph
+        int[] projectOf=new int[g.size()];
+        Arrays.fill(projectOf,-1);
+        for(int p=0;p<rootPoms.length;p++)
+            for(Iterator<POM> itr=rootPoms[p].depthFirstIterator();itr.hasNext();) {
+                int i=g.indexOf(itr.next().getId());
+                if(i>=0)
+                    projectOf[i]=p;
+            }
+        List<Set<Integer>> deps=new ArrayList<Set<Integer>>(rootPoms.length);
+        for(int p=0;p<rootPoms.length;p++)
+            deps.add(new LinkedHashSet<Integer>());
+        for(int i=0;i<projectOf.length;i++)
+            if(projectOf[i]>=0)
+                for(int d:g.getDependencies(i))
+                    if(projectOf[d]>=0&&projectOf[d]!=projectOf[i])
+                        deps.get(projectOf[i]).add(projectOf[d]);
+        int[][] edges=new int[rootPoms.length][];
+        for(int p=0;p<rootPoms.length;p++) {
+            edges[p]=new int[deps.get(p).size()];
+            int k=0;
+            for(Integer d:deps.get(p))
+                edges[p][k++]=d;
+        }
+        return edges;
+    }
+
+    /**
+     * Reads build times from a CSV file. Each line is
+     * "module,seconds", where module is a project name in the manifest
+     * or a groupId:artifactId. Empty lines, lines starting with '#',
+     * and a header line are ignored.
+     */
+    public static Map<String,Double> readBuildTimes(File file) throws IOException {
+        Map<String,Double> map=new HashMap<String,Double>();
+        BufferedReader reader=new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            boolean first=true;
+            while((line=reader.readLine())!=null) {
+                line=line.trim();
+                if(line.length()==0||line.startsWith("#"))
+                    continue;
+                boolean header=first;
+                first=false;
+                int index=line.lastIndexOf(',');
+                if(index<=0)
+                    throw new RuntimeException("Invalid line in "+file+":"+line);
+                String module=line.substring(0,index).trim();
+                try {
+                    map.put(module,Double.parseDouble(line.substring(index+1).trim()));
+                } catch (NumberFormatException e) {
+                    if(!header)
+                        throw new RuntimeException("Invalid build time in "+file+":"+line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return map;
+    }
+
+    /**
+     * Splits the projects into nShards shards, balancing the build
+     * time of the shards (see ShardPlan). The cost of a project is its
+     * build time if listed in buildTimes, or the sum of the build times
+     * of its modules listed by groupId:artifactId. Projects without a
+     * build time get the average of the known project costs. Within a
+     * shard, projects are in build order.
+     */
+    public List<POM[]> getShards(POM[] rootPoms,Map<String,Double> buildTimes,int nShards) {
+        double[] costs=new double[rootPoms.length];
+        boolean[] known=new boolean[rootPoms.length];
+        double total=0;
+        int nKnown=0;
+        for(int p=0;p<rootPoms.length;p++) {
+            String name=tree.getProjectName(rootPoms[p]);
+            Double t=name==null?null:buildTimes.get(name);
+            if(t!=null) {
+                costs[p]=t;
+                known[p]=true;
+            } else
+                for(Iterator<POM> itr=rootPoms[p].depthFirstIterator();itr.hasNext();) {
+                    t=buildTimes.get(itr.next().getId());
+                    if(t!=null) {
+                        costs[p]+=t;
+                        known[p]=true;
+                    }
+                }
+            if(known[p]) {
+                total+=costs[p];
+                nKnown++;
+            }
+        }
+        double defaultCost=nKnown==0?1:total/nKnown;
+        for(int p=0;p<rootPoms.length;p++)
+            if(!known[p]) {
+                costs[p]=defaultCost;
+                out.println("No build time for "+rootPoms[p].getId()+", using "+defaultCost);
+            }
+
+        ShardPlan plan=new ShardPlan(getProjectEdges(rootPoms),costs,nShards);
+        List<POM[]> shards=new ArrayList<POM[]>(nShards);
+        for(int s=0;s<nShards;s++) {
+            List<Integer> shard=plan.getShard(s);
+            POM[] arr=new POM[shard.size()];
+            for(int i=0;i<arr.length;i++)
+                arr[i]=rootPoms[shard.get(i)];
+            shards.add(arr);
+            out.println("Shard "+(s+1)+": "+arr.length+" projects, cost "+plan.getCost(s)+
+                               ", estimated finish "+plan.getFinish(s));
+        }
+        out.println("Estimated build time:"+plan.getMakespan());
+        return shards;
+    }
+
+    /**
+     * Returns the projects of the waves in build order
+     */
+    public static POM[] flatten(List<POM[]> waves) {
+        List<POM> list=new ArrayList<POM>();
+        for(POM[] wave:waves)
+            list.addAll(Arrays.asList(wave));
+        return list.toArray(new POM[list.size()]);
+    }
+
+    /**
+     * Writes the waves to file, one line for each wave, listing the
+     * module directories of the projects in the wave separated by spaces
+     */
+    public void writeWaves(List<POM[]> waves,File file) throws IOException {
+        PrintWriter writer=new PrintWriter(new FileWriter(file));
+        try {
+            for(POM[] wave:waves) {
+                StringBuilder buf=new StringBuilder();
+                for(POM p:wave) {
+                    if(buf.length()>0)
+                        buf.append(' ');
+                    buf.append(getPomPath(p));
+                }
+                writer.println(buf.toString());
             }
+        } finally {
+            writer.close();
         }
-        throw new RuntimeException("Cannot find path for "+p.getId());
+    }
+
+    private String getPomPath(POM p) {
+        String path=tree.getModulePath(p);
+        if(path==null)
+            throw new RuntimeException("Cannot find path for "+p.getId());
+        return path;
     }
 
     private void generateSkeleton(Document doc) {
@@ -139,10 +322,12 @@ public class GenerateRootPom {
 
     public Document generatePOM(POM[] rootPoms) throws Exception {
         Document doc;
-        if(skeleton!=null)
-            doc=XML.docBuilder.parse(new File(skeleton));
-        else {
-            doc=XML.docBuilder.newDocument();
+        if(skeleton!=null) {
+            doc=XML.getDocBuilder().parse(new File(skeleton));
+            if(Stats.enabled)
+                Stats.parsed(new File(skeleton));
+        } else {
+            doc=XML.getDocBuilder().newDocument();
             generateSkeleton(doc);
         }
         // Find modules
@@ -165,22 +350,21 @@ public class GenerateRootPom {
 
     public POM[] getPOMsToBuild() throws Exception {
         boolean all=false;
-        String[] allProjects=mf.getAllProjects();
-        for(String x:allProjects) {
-            File pomPath=new File(allManifest.getParentFile(),mf.getPOMForProject(x));
-            pomMap.put(x,new POM(pomPath));
-        }
+        tree.load();
+        Stats.phase("select");
+        Object event=Events.beginBuildSet();
+        String[] allProjects=tree.getProjects();
         HashSet<String> buildSet=new HashSet<String>();
 
         // Put all artifacts in the manifest into the buildSet 
         String[] buildProjects=mf.getBuildProjects();
-        if(buildProjects==null||buildProjects.length==0) {
+        if((buildProjects==null||buildProjects.length==0)&&changedFiles==null) {
             buildProjects=allProjects;
             all=true;
         }
         
         for(String x:buildProjects) {
-            POM rootPom=pomMap.get(x);
+            POM rootPom=tree.getProject(x);
             if(rootPom==null)
                 throw new RuntimeException("POM for "+x+" not found");
             if(all)
@@ -188,42 +372,30 @@ public class GenerateRootPom {
             else
                 addAllArtifacts(buildSet,rootPom);
         }
+        if(changedFiles!=null)
+            addChangedModules(buildSet);
         if(!all) {
-            HashSet<String> add=new HashSet<String>();
-//             do {
-//                 for(String artifact:buildSet) {
-//                     String[] deps=findDependentArtifacts(artifact);
-//                     if(deps!=null) 
-//                         for(String x:deps)
-//                             if(!buildSet.contains(x))
-//                                 add.add(x);
-//                 }
-//                 buildSet.addAll(add);
-//                 add.clear();
-//             } while(!add.isEmpty());
-
-            // For every artifact in the buildset, find a project depending on it
-            // and add it to the build set
-            do {
-                for(String artifact:buildSet) {
-                    String[] deps=findArtifactsDependingOn(artifact);
-                    if(deps!=null)
-                        for(String x:deps)
-                            if(!buildSet.contains(x))
-                                add.add(x);
-                }
-                buildSet.addAll(add);
-                add.clear();
-            } while(!add.isEmpty());
+            // Add every project depending on an artifact in the
+            // build set, directly or indirectly
+            DependencyGraph graph=tree.getGraph();
+            int[] start=new int[buildSet.size()];
+            int k=0;
+            for(String artifact:buildSet)
+                start[k++]=graph.indexOf(artifact);
+            boolean[] closure=graph.getDependentClosure(start);
+            for(int i=0;i<closure.length;i++)
+                if(closure[i])
+                    buildSet.add(graph.getPOM(i).getId());
         }
-        System.out.println("Buildset:");
+        out.println("Buildset:");
         for(String x:buildSet)
-            System.out.println(x);
+            out.println(x);
         // Convert the artifact list into root pom list
         POM[] poms=getRootPoms(buildSet);
-        System.out.println("Build projects:");
+        Events.endBuildSet(event,buildSet.size(),poms.length);
+        out.println("Build projects:");
         for(POM x:poms)
-            System.out.println(x.getId());
+            out.println(x.getId());
         return poms;
     }
         
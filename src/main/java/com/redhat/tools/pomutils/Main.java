@@ -42,15 +42,11 @@ public class Main {
         }
     }
 
-    private static void checkDependencyVersionSanity(POM p,NodeList dependencies) throws Exception {
-        int n=dependencies.getLength();
-        for(int i=0;i<n;i++) {
-            Element el=(Element)dependencies.item(i);
-            String artifactId=XML.getElementText(el,XML.xp_rel_artifactId);
-            String groupId=XML.getElementText(el,XML.xp_rel_groupId);
-            String version=p.resolve(XML.getElementText(el,XML.xp_rel_version));
+    private static void checkDependencyVersionSanity(POM p,List<Artifact> dependencies) throws Exception {
+        for(Artifact a:dependencies) {
+            String version=p.resolve(a.version);
             if(version!=null) {
-                POM dep=POM.allPOMs.get(groupId+":"+artifactId);
+                POM dep=POM.allPOMs.get(a.groupId+":"+a.artifactId);
                 if(dep!=null) {
                     if(!dep.getVersion().equals(version))
                         System.out.println(p.getGroupId()+":"+p.getArtifactId()+
@@ -64,11 +60,9 @@ public class Main {
 
     private static void checkVersionSanity(POM p) throws Exception {
         // Make sure all dependencies of this pom that point to other poms in the tree has the correct version
-        NodeList dependencies=p.getDependencies();
-        checkDependencyVersionSanity(p,dependencies);
+        checkDependencyVersionSanity(p,p.getDependencyArtifacts());
         // Make sure dependency management is sane
-        dependencies=p.getDependencyManagement();
-        checkDependencyVersionSanity(p,dependencies);
+        checkDependencyVersionSanity(p,p.getDependencyManagementArtifacts());
 
         // Make sure parent pom version is correct
         String parentGroupId=p.getParentGroupId();
@@ -96,7 +90,7 @@ public class Main {
         
     }
 
-    private static void checkVersionSanity() throws Exception {
+    static void checkVersionSanity() throws Exception {
         for(POM p:POM.allPOMs.values())
             checkVersionSanity(p);
     }
@@ -106,45 +100,35 @@ public class Main {
         return stdin.readLine();
     }
 
-    private static boolean fixDependencies(POM pom,Artifact a,NodeList dependencies) throws Exception {
-        int n=dependencies.getLength();
+    /**
+     * Sets the version of all references to a in the tree: dependencies,
+     * dependency management, and parents
+     */
+    static boolean fixDependencies(DependencyIndex index,Artifact a) throws Exception {
         boolean changed=false;
-        for(int i=0;i<n;i++) {
-            Element el=(Element)dependencies.item(i);
-            Element depVersionEl=XML.getElement(el,XML.xp_rel_version);
-            if(depVersionEl!=null) {
-                String depVersion=depVersionEl.getTextContent();
-                if(!depVersion.equals(a.version)) {
-                    depVersionEl.setTextContent(a.version);
-                    pom.setModified();
+        List<String> messages=new ArrayList<String>();
+        for(DependencyIndex.Reference ref:index.getReferences(a.groupId,a.artifactId)) {
+            if(ref.kind==DependencyIndex.PARENT) {
+                if(ref.pom.setParentVersion(a.version))
                     changed=true;
-                }
-            } else
-                System.out.println("Cannot set version in "+pom.getGroupId()+":"+pom.getArtifactId());
+            } else if(VersionUpdate.setDependencyVersion(ref.pom,ref.element,a.version,messages))
+                changed=true;
         }
+        for(String msg:messages)
+            System.out.println(msg);
         return changed;
     }
 
-    private static boolean fixDependencies(Artifact a) throws Exception {
-        boolean changed=false;
-        XPathExpression x=XML.xpf.newXPath().compile("/project/dependencies/dependency [artifactId='"+a.artifactId+"' and groupId='"+a.groupId+"']");
-        XPathExpression d=XML.xpf.newXPath().compile("/project/dependencyManagement/dependencies/dependency [artifactId='"+a.artifactId+"' and groupId='"+a.groupId+"']");
-
-        for(POM pom:POM.allPOMs.values()) {
-            // Go thru all dependencies and fix them
-            if(fixDependencies(pom,a,XML.getElements(pom.doc,x)))
-                changed=true;
-            if(fixDependencies(pom,a,XML.getElements(pom.doc,d)))
-                changed=true;
-            
-            // Update parent if necessary
-            String parentGroupId=pom.getParentGroupId();
-            String parentArtifactId=pom.getParentArtifactId();
-            if(a.groupId.equals(parentGroupId)&&a.artifactId.equals(parentArtifactId)) {
-                changed=pom.setParentVersion(a.version);
+    private static boolean hasDependency(POM pom,Artifact a) {
+        for(Artifact dep:pom.getDependencyArtifacts()) {
+            if(a.groupId.equals(dep.groupId)&&a.artifactId.equals(dep.artifactId)) {
+                if(a.version.equals("*"))
+                    return true;
+                else if(a.version.equals(dep.version))
+                    return true;
             }
         }
-        return changed;
+        return false;
     }
 
     private static Element findDependency(POM pom,Artifact a) throws Exception {
@@ -171,29 +155,254 @@ public class Main {
     }
             
 
-    private static void write(boolean writeAll) throws Exception {
+    /**
+     * Reads the list of changed files, one per line, from file, or
+     * from stdin if file is empty. Relative names are relative to dir,
+     * or the current directory if dir is null.
+     */
+    private static List<File> readChangedFiles(String file,File dir) throws IOException {
+        BufferedReader reader=new BufferedReader(file.length()==0?
+                                                 new InputStreamReader(System.in):
+                                                 new FileReader(file));
+        List<File> list=new ArrayList<File>();
+        String line;
+        while((line=reader.readLine())!=null) {
+            line=line.trim();
+            if(line.length()>0) {
+                File f=new File(line);
+                list.add(dir==null||f.isAbsolute()?f:new File(dir,line));
+            }
+        }
+        reader.close();
+        return list;
+    }
+
+    /**
+     * Returns a numbered version of a file name: "x.pom.xml" becomes
+     * "x.pom.1.xml", "waves.txt" becomes "waves.1.txt"
+     */
+    private static File getNumberedFile(File f,int n) {
+        String fname=f.getName();
+        int index=fname.lastIndexOf('.');
+        if(index>0)
+            fname=fname.substring(0,index)+"."+n+fname.substring(index);
+        else
+            fname=fname+"."+n;
+        return new File(f.getParentFile(),fname);
+    }
+
+    /**
+     * Returns the root POM file to generate. If no output file is
+     * given, it is named after the build manifest, in the directory
+     * of the all manifest
+     */
+    private static File getOutputFile(String allManifest,String buildManifest,String outputFile) {
+        if(outputFile!=null)
+            return new File(outputFile);
+        File f=new File(buildManifest==null?allManifest:buildManifest);
+        String fname=f.getName();
+        if(fname.toLowerCase().endsWith(".xml"))
+            fname=fname.substring(0,fname.length()-4);
+        if(fname.toLowerCase().endsWith(".mf")) 
+            fname=fname.substring(0,fname.length()-3);
+        fname=fname+".pom.xml";
+        return new File(new File(allManifest).getParent(),fname);
+    }
+
+    private static void generateRootPom(GenerateRootPom grp,File output,
+                                        boolean sortModules,File wavesFile,
+                                        int nShards,Map<String,Double> buildTimes) throws Exception {
+        POM[] projects=grp.getPOMsToBuild();
+        Stats.phase("order");
+        if(sortModules||wavesFile!=null) {
+            List<POM[]> waves=grp.getBuildWaves(projects);
+            if(wavesFile!=null)
+                grp.writeWaves(waves,wavesFile);
+            projects=GenerateRootPom.flatten(waves);
+        }
+        if(nShards>0) {
+            List<POM[]> shards=grp.getShards(projects,buildTimes,nShards);
+            Stats.phase("write");
+            for(int i=0;i<shards.size();i++)
+                XML.write(grp.generatePOM(shards.get(i)),getNumberedFile(output,i+1));
+        } else {
+            Stats.phase("write");
+            XML.write(grp.generatePOM(projects),output);
+        }
+        Stats.endPhase();
+    }
+
+    /**
+     * Parses a manifest file into mf, and prints the problems found in it
+     */
+    private static void parseManifest(Manifest mf,String file,boolean validate) {
+        int n=mf.getProblems().size();
+        mf.setValidate(validate);
+        Stats.phase("manifest");
+        mf.parse(new File(file));
+        List<String> problems=mf.getProblems();
+        for(int i=n;i<problems.size();i++)
+            System.out.println(problems.get(i));
+    }
+
+    /**
+     * Parses the module map, and loads its projects using loader
+     */
+    static ProjectTree loadProjectTree(String allManifest,boolean validate,
+                                       POMLoader loader) throws Exception {
+        Manifest mf=new Manifest();
+        parseManifest(mf,allManifest,validate);
+        ProjectTree tree=new ProjectTree(mf,new File(allManifest),loader);
+        tree.load();
+        return tree;
+    }
+
+    /**
+     * Generates a root POM for each build manifest, or for the build
+     * set of the module map if there are none. All generators share
+     * the loaded tree, and the root POMs are generated concurrently. The
+     * output of each generator is printed in the order of the manifests.
+     */
+    private static void generateRootPoms(ProjectTree tree,String allManifest,
+                                         List<String> buildManifests,
+                                         List<String> outputFiles,String skeleton,
+                                         List<File> changed,final boolean sortModules,
+                                         String wavesFile,final int nShards,
+                                         final Map<String,Double> buildTimes,
+                                         int nThreads,boolean validate) throws Exception {
+        final int n=Math.max(buildManifests.size(),1);
+        final GenerateRootPom[] generators=new GenerateRootPom[n];
+        final File[] outputs=new File[n];
+        final File[] waves=new File[n];
+        ByteArrayOutputStream[] logs=new ByteArrayOutputStream[n];
+        for(int i=0;i<n;i++) {
+            String buildManifest=buildManifests.isEmpty()?null:buildManifests.get(i);
+            Manifest bmf=tree.getManifest();
+            if(buildManifest!=null) {
+                bmf=new Manifest();
+                parseManifest(bmf,buildManifest,validate);
+            }
+            generators[i]=new GenerateRootPom(tree,bmf,skeleton);
+            generators[i].setChangedFiles(changed);
+            logs[i]=new ByteArrayOutputStream();
+            generators[i].setOutput(new PrintStream(logs[i],true));
+            outputs[i]=getOutputFile(allManifest,buildManifest,
+                                     i<outputFiles.size()?outputFiles.get(i):null);
+            if(wavesFile!=null)
+                waves[i]=getNumberedFile(new File(wavesFile),i+1);
+        }
+        try {
+            Workers.run(n,nThreads,new Workers.Range() {
+                    public void run(int from,int to) throws Exception {
+                        for(int i=from;i<to;i++)
+                            generateRootPom(generators[i],outputs[i],sortModules,waves[i],
+                                            nShards,buildTimes);
+                    }
+                });
+        } finally {
+            for(int i=0;i<n;i++) {
+                if(n>1)
+                    System.out.println(buildManifests.get(i)+" -> "+outputs[i]+":");
+                System.out.print(logs[i].toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the --stats phase running a command
+     */
+    private static String getPhaseName(String cmd) {
+        if(cmd.equals("-p"))
+            return "print";
+        else if(cmd.equals("-x"))
+            return "check";
+        else if(cmd.equals("-xp"))
+            return "xpath";
+        else if(cmd.equals("-df"))
+            return "find";
+        else if(cmd.equals("-dr"))
+            return "remove";
+        return "update";
+    }
+
+    private static void write(boolean writeAll,POMWriter writer) throws Exception {
+        List<POM> list=new ArrayList<POM>();
         for(POM p:POM.allPOMs.values()) {
             if(writeAll||p.isModified()) {
                 System.out.println(p.getGroupId()+":"+p.getArtifactId()+ " is modified");
-                p.write();
+                list.add(p);
             }
         }
+        Stats.phase("write");
+        writer.write(list);
+        Stats.endPhase();
+        System.out.println("Wrote "+writer.getWritten()+" files, skipped "+
+                           writer.getSkipped()+" unchanged files");
     }
     
    public static void main(String[] args) throws Exception {
+        if(args.length>0&&args[0].equals("--client"))
+            System.exit(DaemonClient.run(Arrays.copyOfRange(args,1,args.length)));
+        run(args,null);
+   }
+
+    /**
+     * Runs a command. If daemon is not null, the command is run by the
+     * daemon, using the POMs it keeps loaded.
+     */
+    static void run(String[] args,Daemon daemon) throws Exception {
+        String stats=null;
+        for(String arg:args)
+            if(arg.equals("--stats")||arg.equals("--stats=json"))
+                stats=arg;
+        if(stats==null) {
+            runCommand(args,daemon);
+            return;
+        }
+        Stats.reset();
+        Stats.enabled=true;
+        try {
+            runCommand(args,daemon);
+        } finally {
+            Stats.endPhase();
+            Stats.enabled=false;
+            Stats.print(System.err,stats.equals("--stats=json"));
+        }
+    }
+
+    private static void runCommand(String[] args,Daemon daemon) throws Exception {
         String pomfile=null;
         String cmd=null;
         String varg=null;
         boolean writeAll=false;
         boolean pomNeeded=false;
-        String buildManifest=null;
         String allManifest="all.mf.xml";
-        String outputFile=null;
+        List<String> buildManifests=new ArrayList<String>();
+        List<String> outputFiles=new ArrayList<String>();
         String skeleton=null;
+        boolean sortModules=false;
+        String wavesFile=null;
+        int nShards=0;
+        String buildTimesFile=null;
+        String changedFiles=null;
+        int nThreads=Runtime.getRuntime().availableProcessors();
+        boolean fsync=false;
+        boolean reformat=false;
+        boolean validate=false;
+        boolean useCache=false;
+        String cacheFile=null;
         
         for(int i=0;i<args.length;i++) {
             if(args[i].startsWith("-")) {
-                if(args[i].startsWith("-df")) {
+                if(args[i].equals("--fsync")) {
+                    fsync=true;
+                } else if(args[i].equals("--daemon")) {
+                    cmd=args[i];
+                } else if(args[i].equals("--validate")) {
+                    validate=true;
+                } else if(args[i].equals("--reformat")) {
+                    reformat=true;
+                } else if(args[i].startsWith("-df")) {
                     cmd="-df";
                     varg=args[i].substring(3);
                 } else if(args[i].startsWith("-dr")) {
@@ -201,9 +410,9 @@ public class Main {
                     varg=args[i].substring(4);
                 } else if(args[i].startsWith("-r")) {
                     cmd="-r";
-                    buildManifest=args[i].substring(2);
-                    if(buildManifest.trim().length()==0)
-                        buildManifest=null;
+                    String buildManifest=args[i].substring(2);
+                    if(buildManifest.trim().length()>0)
+                        buildManifests.add(buildManifest);
                 } else if(args[i].startsWith("-l")) {
                     allManifest=args[i].substring(2);
                 } else if(args[i].startsWith("-v")) {
@@ -227,41 +436,112 @@ public class Main {
                     cmd=args[i];
                     pomNeeded=true;
                 } else if(args[i].startsWith("-o")) {
-                    outputFile=args[i].substring(2);
+                    outputFiles.add(args[i].substring(2));
+                } else if(args[i].equals("-t")) {
+                    sortModules=true;
+                } else if(args[i].startsWith("-i")) {
+                    changedFiles=args[i].substring(2);
+                } else if(args[i].startsWith("-n")) {
+                    nShards=Integer.parseInt(args[i].substring(2));
+                } else if(args[i].startsWith("-b")) {
+                    buildTimesFile=args[i].substring(2);
+                } else if(args[i].startsWith("-w")) {
+                    wavesFile=args[i].substring(2);
                 } else if(args[i].startsWith("-s")) {
                     skeleton=args[i].substring(2);
+                } else if(args[i].startsWith("-j")) {
+                    nThreads=Integer.parseInt(args[i].substring(2));
+                } else if(args[i].startsWith("-c")) {
+                    useCache=true;
+                    cacheFile=args[i].substring(2);
+                    if(cacheFile.trim().length()==0)
+                        cacheFile=null;
                 }
             } else
                 pomfile=args[i];
         }
-        if(cmd==null||(pomNeeded&&pomfile==null))
+        if(daemon!=null&&pomfile==null&&daemon.getPomFile()!=null)
+            pomfile=daemon.getPomFile().getPath();
+        if(cmd==null||(pomNeeded&&pomfile==null)) {
             printHelp();
+            return;
+        }
         
-        if(cmd.equals("-r")) {
-            Manifest mf=new Manifest();
-            mf.parse(new File(allManifest));
-            if(buildManifest!=null&&!buildManifest.equals(allManifest))
-                mf.parse(new File(buildManifest));
-            GenerateRootPom grp=new GenerateRootPom(mf,allManifest,skeleton);
-            Document doc=grp.generatePOM(grp.getPOMsToBuild());
-            File f=new File(allManifest);
-            String dir=f.getParent();
-
-            if(outputFile!=null)
-                f=new File(outputFile);
+        if(cmd.equals("--daemon")) {
+            if(daemon!=null)
+                throw new RuntimeException("Already running as a daemon");
+            new Daemon(pomfile==null?null:new File(pomfile),nThreads).run();
+        } else if(cmd.equals("-r")) {
+            List<File> changed=changedFiles==null?null:
+                readChangedFiles(changedFiles,daemon==null?null:daemon.getClientDir());
+            Map<String,Double> buildTimes=buildTimesFile==null?new HashMap<String,Double>():
+                GenerateRootPom.readBuildTimes(new File(buildTimesFile));
+            if(daemon!=null)
+                generateRootPoms(daemon.getProjectTree(allManifest,validate),allManifest,
+                                 buildManifests,outputFiles,skeleton,changed,
+                                 sortModules,wavesFile,nShards,buildTimes,nThreads,
+                                 validate);
             else {
-                f=new File(buildManifest==null?allManifest:buildManifest);
-                String fname=f.getName();
-                if(fname.toLowerCase().endsWith(".xml"))
-                    fname=fname.substring(0,fname.length()-4);
-                if(fname.toLowerCase().endsWith(".mf")) 
-                    fname=fname.substring(0,fname.length()-3);
-                fname=fname+".pom.xml";
-                f=new File(dir,fname);
+                POMLoader loader=new POMLoader(nThreads);
+                POMCache cache=null;
+                if(useCache) {
+                    cache=new POMCache(cacheFile!=null?new File(cacheFile):
+                                       new File(new File(allManifest).getAbsoluteFile().getParentFile(),
+                                                POMCache.DEFAULT_FILE));
+                    cache.load();
+                    loader.setCache(cache);
+                }
+                if(buildManifests.size()<=1) {
+                    String buildManifest=buildManifests.isEmpty()?null:buildManifests.get(0);
+                    Manifest mf=new Manifest();
+                    parseManifest(mf,allManifest,validate);
+                    if(buildManifest!=null&&!buildManifest.equals(allManifest))
+                        parseManifest(mf,buildManifest,validate);
+                    GenerateRootPom grp=new GenerateRootPom(new ProjectTree(mf,new File(allManifest),loader),
+                                                            mf,skeleton);
+                    grp.setChangedFiles(changed);
+                    generateRootPom(grp,
+                                    getOutputFile(allManifest,buildManifest,
+                                                  outputFiles.isEmpty()?null:outputFiles.get(0)),
+                                    sortModules,wavesFile==null?null:new File(wavesFile),
+                                    nShards,buildTimes);
+                } else
+                    generateRootPoms(loadProjectTree(allManifest,validate,loader),allManifest,
+                                     buildManifests,outputFiles,skeleton,changed,
+                                     sortModules,wavesFile,nShards,buildTimes,nThreads,
+                                     validate);
+                if(cache!=null)
+                    cache.save();
             }
-            XML.write(doc,f);
         } else {
-            POM root=new POM(new File(pomfile));
+            POMLoader loader=new POMLoader(nThreads);
+            // These commands do not modify the POMs, so they don't need a DOM
+            loader.setReadOnly(cmd.equals("-p")||
+                               cmd.equals("-x")||
+                               cmd.equals("-df"));
+            Stats.phase("load");
+            POMCache cache=null;
+            if(useCache&&loader.isReadOnly()&&daemon==null) {
+                cache=new POMCache(cacheFile!=null?new File(cacheFile):
+                                   new File(new File(pomfile).getAbsoluteFile().getParentFile(),
+                                            POMCache.DEFAULT_FILE));
+                cache.load();
+                loader.setCache(cache);
+            }
+            POM root;
+            if(daemon!=null) {
+                if(!new File(pomfile).getCanonicalFile().equals(daemon.getPomFile().getCanonicalFile()))
+                    throw new RuntimeException("The daemon is running for "+daemon.getPomFile()+
+                                               ", not "+pomfile);
+                root=daemon.getRoot();
+            } else
+                root=loader.load(new File(pomfile));
+            POMWriter writer=new POMWriter(nThreads);
+            writer.setSync(fsync);
+            writer.setPreserveFormat(!reformat);
+            if(cache!=null)
+                cache.save();
+            Stats.phase(getPhaseName(cmd));
             if(cmd.equals("-p"))
                 printVersions(root);
             else if(cmd.equals("-x"))
@@ -275,6 +555,8 @@ public class Main {
             } else if(cmd.equals("-v")) {
                 Artifact a=Artifact.parse(varg);
                 POM vc=POM.allPOMs.get(a.groupId+":"+a.artifactId);
+                DependencyIndex index=daemon!=null?daemon.getDependencyIndex():
+                    new DependencyIndex(POM.allPOMs.values());
                 boolean changed=false;
                 System.out.print("Setting the version of "+a.groupId+":"+a.artifactId+
                                  " to "+a.version);
@@ -282,33 +564,28 @@ public class Main {
                     if(vc.setVersion(a.version))
                         changed=true;
                 }
-                if(fixDependencies(a))
+                if(fixDependencies(index,a))
                     changed=true;
                 if(changed)
-                    write(writeAll);
+                    write(writeAll,writer);
             } else if(cmd.equals("-f")) {
                 BufferedReader reader=new BufferedReader(new FileReader(varg));
                 String line;
-                boolean changed=false;
+                VersionUpdate update=new VersionUpdate();
                 while((line=reader.readLine())!=null) {
                     line=line.trim();
-                    if(line.length()>0) {
-                        Artifact a=Artifact.parse(line);
-                        POM vc=POM.allPOMs.get(a.groupId+":"+a.artifactId);
-                        if(vc!=null) {
-                            if(vc.setVersion(a.version))
-                                changed=true;
-                        }
-                        if(fixDependencies(a))
-                            changed=true;
-                    }
+                    if(line.length()>0)
+                        update.add(Artifact.parse(line));
                 }
-                if(changed)
-                    write(writeAll);
+                reader.close();
+                for(String conflict:update.getConflicts())
+                    System.out.println(conflict);
+                if(update.apply(POM.allPOMs.values(),nThreads))
+                    write(writeAll,writer);
             } else if(cmd.equals("-df")) {
                 Artifact a=Artifact.parse(varg);
                 for(POM pom:POM.allPOMs.values()) {
-                    if(findDependency(pom,a)!=null)
+                    if(hasDependency(pom,a))
                         System.out.println(pom.getFile().getPath());
                 }
             } else if(cmd.equals("-dr")) {
@@ -319,15 +596,17 @@ public class Main {
                     if(el!=null) {
                         el.getParentNode().removeChild(el);
                         pom.setModified();
+                        if(daemon!=null)
+                            daemon.reindex(pom);
                         changed=true;
                     }
                 }
                 if(changed)
-                    write(writeAll);
+                    write(writeAll,writer);
             } else 
                 printHelp();
         }
-   }
+    }
     
     private static void printHelp() {
         System.out.println("This is how it works:\n"+
@@ -382,11 +661,52 @@ public class Main {
                            "  pomutil <pomfile> -drgroupId:artifact:version\n"+
                            "\n"+
                            "\n"+
-                           "  pomutil -r[build manifest] [-lall.mf.xml] [-ooutputFile] [-sskeleton]\n"+
+                           "  pomutil -r[build manifest] [-lall.mf.xml] [-ooutputFile] [-sskeleton] [-i[changedFiles]] [-t] [-wwavesFile] [-nshards [-bbuildTimes.csv]]\n"+
                            "\n"+
                            "Builds a root pom based on the given build manifest, or if omitted, all.mf.xml\n"+
-                           "If a skeleton pom file is given, the <modules> section is replaced with the modules to be built.\n");
-        System.exit(0);
-
+                           "If a skeleton pom file is given, the <modules> section is replaced with the modules to be built.\n"+
+                           "Use --validate to validate the manifests against the manifest schema.\n"+
+                           "Give -r and -o more than once to generate a root pom for each build manifest in\n"+
+                           "one run, loading the module map once. The n-th -o is the output of the n-th -r.\n"+
+                           "Use -i[file] to add the modules containing the files listed in file (or stdin) to the\n"+
+                           "build set, e.g. git diff --name-only | pomutil -r -lall.mf.xml -i\n"+
+                           "Use -t to list the modules in build order. Use -wfile to also write the modules in build\n"+
+                           "waves to file, one line per wave. Modules in a wave do not depend on each other.\n"+
+                           "Use -n<shards> to split the modules into that many root poms, with balanced build\n"+
+                           "times, to build in parallel. The build times are read from a CSV file given with -b,\n"+
+                           "one 'module,seconds' line for each project name or groupId:artifactId.\n"+
+                           "\n"+
+                           "\n"+
+                           "Use -j<n> to load the POM tree using n threads (default: number of processors)\n"+
+                           "\n"+
+                           "Use -c[cacheFile] with -p, -x, -df and -r to cache the information read from POM files.\n"+
+                           "Unchanged POMs are not parsed again in the next run. The default cache file is\n"+
+                           ".pomutil/pominfo.cache under the directory of <pomfile>, or of the module map with -r\n"+
+                           "\n"+
+                           "Modified POMs are written in parallel, to temporary files that are then renamed.\n"+
+                           "Use --fsync to flush the files to the disk before renaming them.\n"+
+                           "\n"+
+                           "Version changes are written by replacing the changed text in the POM files,\n"+
+                           "keeping the rest of the files as they are. POMs with removed dependencies are\n"+
+                           "serialized as a whole. Use --reformat to serialize all written POMs. Files whose\n"+
+                           "contents would not change are not written.\n"+
+                           "\n"+
+                           "Run pomutil as a daemon that keeps the POMs loaded between commands:\n"+
+                           "\n"+
+                           "  pomutil <pomfile> --daemon\n"+
+                           "\n"+
+                           "Then run commands with --client, using the same syntax:\n"+
+                           "\n"+
+                           "  pomutil --client -p\n"+
+                           "  pomutil --client -vgroupId:artifact:version\n"+
+                           "  pomutil --client -rmyworkset.xml -lall.mf.xml -opom.xml\n"+
+                           "\n"+
+                           "The client finds the daemon through .pomutil/daemon, in the directory of <pomfile>\n"+
+                           "or of the current directory, or one of their parents. POM files changed on the\n"+
+                           "disk are loaded again. Stop the daemon with pomutil --client --stop\n"+
+                           "\n"+
+                           "Use --stats with any command to print the time spent in each phase, the files\n"+
+                           "parsed and written, path evaluations and property lookups to stderr. Use\n"+
+                           "--stats=json for JSON output.\n");
     }
 }
@@ -22,21 +22,47 @@ import java.util.Map;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.ArrayList;
 
 import java.io.File;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
+import java.net.URL;
+
+import javax.xml.XMLConstants;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
+ * A build manifest: the module map (project name to POM file) and the
+ * build set. Manifests are read with a streaming parser, and can
+ * optionally be validated against build-manifest.xsd in the same pass.
+ *
  * @author Burak Serdar (bserdar@redhat.com)
  */
 public class Manifest {
 
     private final Map<String,String> projectPomMap=new HashMap<String,String>();
+    /**
+     * Project name -> module directory, the directory of the project
+     * POM relative to the manifest
+     */
+    private final Map<String,String> projectModuleMap=new HashMap<String,String>();
     private final Set<String> buildProjects=new HashSet<String>();
+    private final List<String> problems=new ArrayList<String>();
+    private boolean validate=false;
+
+    private static final String SCHEMA="/build-manifest.xsd";
+    private static Schema schema;
 
     public String[] getAllProjects() {
         String[] ret=new String[projectPomMap.size()];
@@ -48,36 +74,76 @@ public class Manifest {
         return projectPomMap.get(project);
     }
 
+    /**
+     * Returns the directory of the project POM, relative to the
+     * manifest, to be used as a module in a root POM
+     */
+    public String getModuleForProject(String project) {
+        return projectModuleMap.get(project);
+    }
+
     public String[] getBuildProjects() {
         String[] ret=new String[buildProjects.size()];
         buildProjects.toArray(ret);
         return ret;
     }
 
+    /**
+     * If set, manifests are validated against build-manifest.xsd
+     * while they are parsed
+     */
+    public void setValidate(boolean b) {
+        validate=b;
+    }
+
+    public boolean isValidate() {
+        return validate;
+    }
+
+    /**
+     * Returns the problems found in the module maps parsed so far:
+     * duplicate project names, entries without a name or POM, and
+     * POM files that don't exist
+     */
+    public List<String> getProblems() {
+        return problems;
+    }
+
+    /**
+     * Returns the manifest schema. It is compiled once, and can be
+     * shared by threads.
+     */
+    public static Schema getSchema() {
+        synchronized(Manifest.class) {
+            if(schema==null) {
+                URL url=Manifest.class.getResource(SCHEMA);
+                if(url==null)
+                    throw new RuntimeException("Cannot find "+SCHEMA);
+                try {
+                    schema=SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(url);
+                } catch (SAXException e) {
+                    throw new RuntimeException("Invalid schema "+SCHEMA+":"+e.getMessage(),e);
+                }
+            }
+            return schema;
+        }
+    }
+
+    /**
+     * Parses a manifest using a streaming parser. If validation is
+     * enabled, the manifest is validated in the same pass.
+     */
     public void parse(File f) {
         try {
-            String manifestDir=f.getParent();
-            Document doc=XML.docBuilder.parse(f);
-            Element root=doc.getDocumentElement();
-            if(root.getTagName().equals("manifest")) {
-                NodeList moduleMap=XML.getElements(root,XML.xp_mf_modulemap);
-                int n=moduleMap.getLength();
-                for(int i=0;i<n;i++) {
-                    Node mapItem=moduleMap.item(i);
-                    String name=XML.getElementText(mapItem,XML.xp_mf_modulename);
-                    String pom=XML.getElementText(mapItem,XML.xp_mf_modulepom);
-                    projectPomMap.put(name,pom);
-                }
-                NodeList buildset=XML.getElements(root,XML.xp_mf_buildset);
-                n=buildset.getLength();
-                for(int i=0;i<n;i++) {
-                    Node item=buildset.item(i);
-                    if(item.getNodeType()==Node.ELEMENT_NODE&&
-                       item.getNodeName().equals("module"))
-                        buildProjects.add(item.getTextContent());
-                }
-            } else
-                throw new RuntimeException("Root element 'manifest' is expected:"+f);
+            SAXParserFactory factory=SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            if(validate)
+                factory.setSchema(getSchema());
+            factory.newSAXParser().parse(f,new Handler(f));
+            if(Stats.enabled)
+                Stats.parsed(f);
+        } catch (SAXParseException e) {
+            throw new RuntimeException(f+":"+e.getLineNumber()+":"+e.getMessage(),e);
         } catch (RuntimeException x) {
             throw x;
         } catch (Exception e) {
@@ -85,6 +151,86 @@ public class Manifest {
         }
     }
 
+    /**
+     * Collects the module map and the build set. Validation errors
+     * are thrown.
+     */
+    private class Handler extends DefaultHandler {
+        private final File file;
+        private final StringBuilder text=new StringBuilder();
+        private Locator locator;
+        private int depth=0;
+        /**
+         * Which section the parser is in: 0 none, 1 modulemap, 2 buildset
+         */
+        private int section=0;
+        private String name;
+        private String pom;
+        private int entryLine;
+
+        Handler(File file) {
+            this.file=file;
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            this.locator=locator;
+        }
+
+        public void startElement(String uri,String localName,String qName,Attributes attributes) {
+            depth++;
+            if(depth==1) {
+                if(!localName.equals("manifest"))
+                    throw new RuntimeException("Root element 'manifest' is expected:"+file);
+            } else if(depth==2) {
+                section=localName.equals("modulemap")?1:localName.equals("buildset")?2:0;
+            } else if(depth==3&&section==1) {
+                name=null;
+                pom=null;
+                entryLine=locator==null?0:locator.getLineNumber();
+            }
+            text.setLength(0);
+        }
+
+        public void characters(char[] ch,int start,int length) {
+            text.append(ch,start,length);
+        }
+
+        public void endElement(String uri,String localName,String qName) {
+            if(section==1) {
+                if(depth==4) {
+                    if(name==null&&localName.equals("name"))
+                        name=text.toString();
+                    else if(pom==null&&localName.equals("pom"))
+                        pom=text.toString();
+                } else if(depth==3)
+                    addModule(file,name,pom,entryLine);
+            } else if(section==2&&depth==3&&localName.equals("module"))
+                buildProjects.add(text.toString());
+            if(depth==2)
+                section=0;
+            text.setLength(0);
+            depth--;
+        }
+
+        public void error(SAXParseException e) throws SAXException {
+            throw e;
+        }
+    }
+
+    private void addModule(File f,String name,String pom,int line) {
+        if(name==null||pom==null) {
+            problems.add(f+":"+line+": module without "+(name==null?"name":"pom"));
+            return;
+        }
+        String old=projectPomMap.put(name,pom);
+        if(old!=null)
+            problems.add(f+":"+line+": duplicate module "+name+" ("+old+" and "+pom+"), using "+pom);
+        String module=new File(pom).getParent();
+        projectModuleMap.put(name,module==null?".":module);
+        if(!new File(f.getAbsoluteFile().getParentFile(),pom).isFile())
+            problems.add(f+":"+line+": POM of module "+name+" does not exist:"+pom);
+    }
+
     public String toString() {
         return "POM Map="+projectPomMap+"\n"+"buildSet="+buildProjects;
     }
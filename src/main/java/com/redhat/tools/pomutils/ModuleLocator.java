@@ -0,0 +1,101 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+
+import java.nio.file.Path;
+
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Finds the module owning a file. The directories of the POM files
+ * are kept in a trie of path names, and a file is owned by the POM in
+ * the deepest directory containing it. A lookup takes time
+ * proportional to the depth of the file, independent of the number of
+ * modules.
+ *
+ * Paths are made absolute and normalized, but symbolic links are not
+ * resolved.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class ModuleLocator {
+
+    private static class Node {
+        Map<String,Node> children;
+        POM pom;
+
+        Node child(String name,boolean create) {
+            Node n=children==null?null:children.get(name);
+            if(n==null&&create) {
+                if(children==null)
+                    children=new HashMap<String,Node>(4);
+                n=new Node();
+                children.put(name,n);
+            }
+            return n;
+        }
+    }
+
+    private final Node root=new Node();
+
+    /**
+     * Adds the POM and all its modules
+     */
+    public void addTree(POM pom) {
+        add(pom);
+        for(POM child:pom.getChildren())
+            addTree(child);
+    }
+
+    /**
+     * Adds a POM, owning the files under the directory of its POM file
+     */
+    public void add(POM pom) {
+        Node node=root;
+        Path dir=toPath(pom.getFile()).getParent();
+        if(dir!=null)
+            for(Path name:dir)
+                node=node.child(name.toString(),true);
+        node.pom=pom;
+    }
+
+    /**
+     * Returns the POM owning the file, or null if the file is not
+     * under the directory of a POM
+     */
+    public POM find(File file) {
+        Node node=root;
+        POM pom=root.pom;
+        for(Path name:toPath(file)) {
+            node=node.child(name.toString(),false);
+            if(node==null)
+                break;
+            if(node.pom!=null)
+                pom=node.pom;
+        }
+        return pom;
+    }
+
+    private static Path toPath(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -22,11 +22,18 @@ import java.io.IOException;
 import java.io.File;
 import java.io.FileOutputStream;
 
+import java.nio.file.Files;
+
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.Collections;
+
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
@@ -43,10 +50,25 @@ import javax.xml.parsers.DocumentBuilder;
  */
 public class POM {
 
+    /**
+     * The POM document, or null if the POM is loaded read-only
+     */
     public final Document doc;
+    /**
+     * Extracted POM information if the POM is loaded read-only
+     */
+    private final POMInfo info;
     private final File file;
     private final List<POM> children=new ArrayList<POM>();
     private boolean modified=false;
+    /**
+     * Text changes since the POM is read or written. If the structure
+     * of the document is not changed, these are spliced into the
+     * source instead of serializing the document.
+     */
+    private final Map<Element,SourceSplice.TextEdit> textEdits=
+        new LinkedHashMap<Element,SourceSplice.TextEdit>();
+    private boolean structureModified=false;
 
     private String cachedArtifactId;
     private String cachedGroupId;
@@ -55,22 +77,131 @@ public class POM {
     private String cachedParentGroupId;
     private String cachedParentVersion;
 
-    public static final Map<String,POM> allPOMs=new HashMap<String,POM>();
+    /**
+     * Properties defined in this POM, unresolved
+     */
+    private volatile Map<String,String> ownProperties;
+    /**
+     * Values of the properties defined in this POM, resolved in the
+     * context of this POM
+     */
+    private final Map<String,String> resolvedProperties=new ConcurrentHashMap<String,String>();
+    /**
+     * Properties visible in this POM, including the inherited ones
+     */
+    private volatile EffectiveProperties effectiveProperties;
+    /**
+     * POMs whose effective properties are built using the effective
+     * properties of this POM. These are invalidated when this POM
+     * changes.
+     */
+    private final Set<POM> inheritors=Collections.newSetFromMap(new ConcurrentHashMap<POM,Boolean>());
+
+    private static class EffectiveProperties {
+        /**
+         * The POM defining each property
+         */
+        final Map<String,POM> owners=new HashMap<String,POM>();
+        /**
+         * The first ancestor that is not in the tree, or null
+         */
+        String missingParent;
+    }
+
+    public static final Map<String,POM> allPOMs=new ConcurrentHashMap<String,POM>();
     
     public POM(File file) 
+        throws SAXException, IOException {
+        this(file,false);
+    }
+
+    /**
+     * Loads the POM tree rooted at file. If readOnly is true, only
+     * the information read-only commands need is extracted from the
+     * files using a streaming parser, and no DOM is built. Such POMs
+     * cannot be modified.
+     */
+    public POM(File file,boolean readOnly) 
         throws SAXException, IOException {
         this.file=file;
-        doc=XML.docBuilder.parse(file);
+        if(readOnly) {
+            doc=null;
+            info=POMInfo.read(file);
+        } else {
+            Object event=Events.beginParse();
+            doc=XML.getDocBuilder().parse(file);
+            info=null;
+            Events.endParse(event,file,true);
+            if(Stats.enabled)
+                Stats.parsed(file);
+        }
 
-        String[] modules=XML.getElementTexts(doc.getDocumentElement(),
-                                             XML.xp_module);
-        for(String module:modules) {
-            File childFile=new File(new File(file.getParentFile(),module),"pom.xml");
-            POM childPom=new POM(childFile);
+        for(String module:getModules()) {
+            POM childPom=new POM(getModuleFile(module),readOnly);
             children.add(childPom);
         }
-        String id=getId();
-        allPOMs.put(id,this);
+        register();
+    }
+
+    /**
+     * Creates a POM for an already parsed document. The children are
+     * added by the caller, and the POM is not registered in allPOMs
+     * until register() is called. Used by POMLoader.
+     */
+    POM(File file,Document doc) {
+        this.file=file;
+        this.doc=doc;
+        this.info=null;
+    }
+
+    /**
+     * Creates a read-only POM from extracted information. Used by POMLoader.
+     */
+    POM(File file,POMInfo info) {
+        this.file=file;
+        this.doc=null;
+        this.info=info;
+    }
+
+    public boolean isReadOnly() {
+        return doc==null;
+    }
+
+    private void checkWritable() {
+        if(doc==null)
+            throw new RuntimeException("POM is loaded read-only:"+file);
+    }
+
+    String[] getModules() {
+        if(info!=null)
+            return info.modules.toArray(new String[info.modules.size()]);
+        return XML.getElementTexts(doc.getDocumentElement(),
+                                   XML.xp_module);
+    }
+
+    File getModuleFile(String module) {
+        return new File(new File(file.getParentFile(),module),"pom.xml");
+    }
+
+    void addChild(POM child) {
+        children.add(child);
+    }
+
+    /**
+     * Replaces a module with a POM loaded again. Used by POMWatcher.
+     */
+    void replaceChild(POM old,POM child) {
+        int index=children.indexOf(old);
+        if(index>=0)
+            children.set(index,child);
+    }
+
+    List<POM> getChildren() {
+        return children;
+    }
+
+    void register() {
+        allPOMs.put(getId(),this);
     }
 
     public File getFile() {
@@ -78,16 +209,71 @@ public class POM {
     }
 
     public void write() throws Exception {
-        XML.write(doc,file);
-        modified=false;
+        checkWritable();
+        byte[] content=getEditedSource();
+        if(content==null)
+            content=XML.toBytes(doc);
+        if(!XML.hasContent(file,content))
+            XML.commit(XML.writeTemp(content,file,false),file);
+        setWritten();
+    }
+
+    /**
+     * Returns the contents of the POM file with the text changes made
+     * to the document spliced in, or null if the document has to be
+     * serialized because its structure is modified, or the changes
+     * cannot be located in the file.
+     */
+    byte[] getEditedSource() throws IOException {
+        checkWritable();
+        if(structureModified)
+            return null;
+        byte[] source=Files.readAllBytes(file.toPath());
+        if(Stats.enabled)
+            Stats.read(source.length);
+        if(textEdits.isEmpty())
+            return source;
+        return SourceSplice.apply(source,doc.getInputEncoding(),textEdits.values());
     }
 
     public String getId() {
         return getGroupId()+":"+getArtifactId();
     }
 
+    /**
+     * Called by POMWriter after the POM is written
+     */
+    void setWritten() {
+        modified=false;
+        structureModified=false;
+        textEdits.clear();
+    }
+
+    /**
+     * Marks the POM as modified. The document is serialized as a
+     * whole when the POM is written, so use setText() for changes
+     * that only set the text of an element.
+     */
     public void setModified() {
         modified=true;
+        structureModified=true;
+    }
+
+    /**
+     * Sets the text of an element of this POM, and marks the POM as
+     * modified. When the POM is written, only the element text is
+     * replaced in the file, unless the structure of the document is
+     * also modified.
+     */
+    public void setText(Element el,String text) {
+        checkWritable();
+        SourceSplice.TextEdit edit=textEdits.get(el);
+        if(edit==null)
+            textEdits.put(el,new SourceSplice.TextEdit(el,el.getTextContent(),text));
+        else
+            edit.newText=text;
+        el.setTextContent(text);
+        modified=true;
     }
 
     public boolean isModified() {
@@ -117,8 +303,9 @@ public class POM {
 
     public String getGroupId() {
         if(cachedGroupId==null) {
-            String s=XML.getElementText(doc.getDocumentElement(),
-                                        XML.xp_groupId);
+            String s=info!=null?info.groupId:
+                XML.getElementText(doc.getDocumentElement(),
+                                   XML.xp_groupId);
             if(s==null)
                 s=getParentGroupId();
             cachedGroupId=resolve(s);
@@ -128,15 +315,17 @@ public class POM {
 
     public String getArtifactId() {
         if(cachedArtifactId==null)
-            cachedArtifactId=resolve(XML.getElementText(doc.getDocumentElement(),
+            cachedArtifactId=resolve(info!=null?info.artifactId:
+                                     XML.getElementText(doc.getDocumentElement(),
                                                         XML.xp_artifactId));
         return cachedArtifactId;
     }
 
     public String getVersion() {
         if(cachedVersion==null) {
-            String s=XML.getElementText(doc.getDocumentElement(),
-                                        XML.xp_version);
+            String s=info!=null?info.version:
+                XML.getElementText(doc.getDocumentElement(),
+                                   XML.xp_version);
             if(s==null)
                 s=getParentVersion();
             cachedVersion=resolve(s);
@@ -145,7 +334,20 @@ public class POM {
     }
 
     public boolean setVersion(String v) {
-        cachedVersion=null;
+        if(writeVersion(v)) {
+            invalidate();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the version text without invalidating the cached values of
+     * this and other POMs. Used by VersionUpdate, which only touches
+     * the POM it is working on, and invalidates when done.
+     */
+    boolean writeVersion(String v) {
+        checkWritable();
         Element el=XML.getElement(doc.getDocumentElement(),
                                   XML.xp_version);
         if(el==null) {
@@ -156,10 +358,10 @@ public class POM {
                                            getGroupId()+":"+getArtifactId());
             el=doc.createElement("version");
             artId.getParentNode().insertBefore(el,artId);
+            structureModified=true;
         }
         if(!el.getTextContent().equals(v)) {
-            el.setTextContent(v);
-            modified=true;
+            setText(el,v);
             return true;
         }
         return false;
@@ -167,48 +369,146 @@ public class POM {
 
     public String getParentGroupId() {
         if(cachedParentGroupId==null)
-            cachedParentGroupId=XML.getElementText(doc.getDocumentElement(),
-                                                   XML.xp_parentGroupId);
+            cachedParentGroupId=info!=null?info.parentGroupId:
+                XML.getElementText(doc.getDocumentElement(),
+                                   XML.xp_parentGroupId);
         return cachedParentGroupId;
     }
 
     public String getParentArtifactId() {
         if(cachedParentArtifactId==null)
-            cachedParentArtifactId=XML.getElementText(doc.getDocumentElement(),
-                                                      XML.xp_parentArtifactId);
+            cachedParentArtifactId=info!=null?info.parentArtifactId:
+                XML.getElementText(doc.getDocumentElement(),
+                                   XML.xp_parentArtifactId);
         return cachedParentArtifactId;
     }
 
     public String getParentVersion() {
         if(cachedParentVersion==null)
-            cachedParentVersion=XML.getElementText(doc.getDocumentElement(),
-                                                   XML.xp_parentVersion);
+            cachedParentVersion=info!=null?info.parentVersion:
+                XML.getElementText(doc.getDocumentElement(),
+                                   XML.xp_parentVersion);
         return cachedParentVersion;
     }
 
     public boolean setParentVersion(String v) {
-        cachedParentVersion=null;
+        if(writeParentVersion(v)) {
+            invalidate();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the parent version text without invalidating cached
+     * values, see writeVersion()
+     */
+    boolean writeParentVersion(String v) {
+        checkWritable();
         Element el=XML.getElement(doc.getDocumentElement(),
                                   XML.xp_parentVersion);
         if(el==null)
             throw new RuntimeException("No parent version in "+getGroupId()+":"+getArtifactId());
         if(!el.getTextContent().equals(v)) {
-            el.setTextContent(v);
-            modified=true;
+            setText(el,v);
+            cachedParentVersion=null;
             return true;
         }
         return false;
     }
 
+    /**
+     * Sets the value of a property defined in this POM. If the
+     * property is not defined, it is added to the properties section.
+     */
+    public boolean setProperty(String name,String value) {
+        checkWritable();
+        Element props=XML.getElement(doc.getDocumentElement(),
+                                     XML.xp_properties);
+        Element el=null;
+        if(props==null) {
+            props=doc.createElement("properties");
+            doc.getDocumentElement().appendChild(props);
+            structureModified=true;
+        } else {
+            NodeList nl=XML.getElements(doc.getDocumentElement(),XML.xp_property);
+            int n=nl.getLength();
+            for(int i=0;i<n&&el==null;i++)
+                if(((Element)nl.item(i)).getTagName().equals(name))
+                    el=(Element)nl.item(i);
+        }
+        if(el==null) {
+            el=doc.createElement(name);
+            props.appendChild(el);
+            structureModified=true;
+        } else if(el.getTextContent().equals(value))
+            return false;
+        setText(el,value);
+        ownProperties=null;
+        invalidate();
+        return true;
+    }
+
+    /**
+     * Drops the resolved values cached in this POM and in all the
+     * POMs inheriting properties from it. Called when a version or a
+     * property changes.
+     */
+    public void invalidate() {
+        cachedGroupId=null;
+        cachedArtifactId=null;
+        cachedVersion=null;
+        resolvedProperties.clear();
+        effectiveProperties=null;
+        List<POM> list=new ArrayList<POM>(inheritors);
+        inheritors.clear();
+        for(POM p:list)
+            p.invalidate();
+    }
+
     public NodeList getDependencies() {
+        checkWritable();
         return XML.getElements(doc.getDocumentElement(),XML.xp_dependency);
     }
 
     public NodeList getDependencyManagement() {
+        checkWritable();
         return XML.getElements(doc.getDocumentElement(),XML.xp_depmgmt);
     }
+
+    /**
+     * Returns the coordinates of the direct dependencies. Versions
+     * are not resolved.
+     */
+    public List<Artifact> getDependencyArtifacts() {
+        if(info!=null)
+            return info.dependencies;
+        return toArtifacts(getDependencies());
+    }
+
+    /**
+     * Returns the coordinates of the dependencies under
+     * dependencyManagement. Versions are not resolved.
+     */
+    public List<Artifact> getDependencyManagementArtifacts() {
+        if(info!=null)
+            return info.dependencyManagement;
+        return toArtifacts(getDependencyManagement());
+    }
+
+    private static List<Artifact> toArtifacts(NodeList nl) {
+        int n=nl.getLength();
+        List<Artifact> list=new ArrayList<Artifact>(n);
+        for(int i=0;i<n;i++) {
+            Element el=(Element)nl.item(i);
+            list.add(new Artifact(XML.getElementText(el,XML.xp_rel_groupId),
+                                  XML.getElementText(el,XML.xp_rel_artifactId),
+                                  XML.getElementText(el,XML.xp_rel_version)));
+        }
+        return list;
+    }
     
-    public Iterator depthFirstIterator() {
+    public Iterator<POM> depthFirstIterator() {
         List<POM> l=new ArrayList<POM>();
         fillDF(l,this);
         return l.iterator();
@@ -223,6 +523,8 @@ public class POM {
     public String resolve(String s) {
         if(s==null)
             return null;
+        if(Stats.enabled)
+            Stats.count("resolve.calls");
 
         StringBuffer out=new StringBuffer();
         StringBuffer sym=new StringBuffer();
@@ -269,37 +571,90 @@ public class POM {
     }
 
     private String lookupProperty(POM pom,String property) {
-        POM current=pom;
+        if(Stats.enabled)
+            Stats.count("lookupProperty.calls");
         if(property.equals("version"))
             return pom.getVersion();
-        while(current!=null) {
-            String s=current.lookupProperty(property);
-            if(s!=null)
-                return s;
-            String parentArtifactId=XML.getElementText(current.doc.getDocumentElement(),XML.xp_parentArtifactId);
-            String parentGroupId=XML.getElementText(current.doc.getDocumentElement(),XML.xp_parentGroupId);
+        EffectiveProperties e=pom.getEffectiveProperties();
+        POM owner=e.owners.get(property);
+        if(owner==null) {
+            if(e.missingParent!=null)
+                throw new RuntimeException("Cannot find parent "+e.missingParent);
+            return null;
+        }
+        return owner.getResolvedProperty(property);
+    }
+
+    /**
+     * Returns the value of a property defined in this POM, resolved
+     * in the context of this POM
+     */
+    private String getResolvedProperty(String property) {
+        String value=resolvedProperties.get(property);
+        if(Stats.enabled)
+            Stats.count(value==null?"resolvedProperty.misses":"resolvedProperty.hits");
+        if(value==null) {
+            value=resolve(getOwnProperties().get(property));
+            resolvedProperties.put(property,value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the properties defined in this POM. If a property is
+     * defined more than once, the first definition is used.
+     */
+    private Map<String,String> getOwnProperties() {
+        Map<String,String> map=ownProperties;
+        if(map==null) {
+            if(info!=null)
+                map=info.properties;
+            else {
+                map=new HashMap<String,String>();
+                NodeList nl=XML.getElements(doc.getDocumentElement(),XML.xp_property);
+                int n=nl.getLength();
+                for(int i=0;i<n;i++) {
+                    Element el=(Element)nl.item(i);
+                    String name=el.getTagName();
+                    if(!map.containsKey(name))
+                        map.put(name,el.getTextContent());
+                }
+            }
+            ownProperties=map;
+        }
+        return map;
+    }
+
+    /**
+     * Returns the properties visible in this POM: the properties of
+     * the parent, overridden by the properties of this POM. Built
+     * once, and rebuilt after invalidate().
+     */
+    private EffectiveProperties getEffectiveProperties() {
+        EffectiveProperties e=effectiveProperties;
+        if(Stats.enabled)
+            Stats.count(e==null?"effectiveProperties.misses":"effectiveProperties.hits");
+        if(e==null) {
+            e=new EffectiveProperties();
+            String parentArtifactId=getParentArtifactId();
+            String parentGroupId=getParentGroupId();
             if(parentArtifactId!=null&&
                parentGroupId!=null) {
                 String id=parentGroupId+":"+parentArtifactId;
                 POM parent=allPOMs.get(id);
                 if(parent==null)
-                    throw new RuntimeException("Cannot find parent "+id);
-                current=parent;
-            } else
-                current=null;
-        }
-        return null;
-    }
-
-    private String lookupProperty(String property) {
-        NodeList nl=XML.getElements(doc.getDocumentElement(),XML.xp_property);
-        int n=nl.getLength();
-        for(int i=0;i<n;i++) {
-            Element el=(Element)nl.item(i);
-            String name=el.getTagName();
-            if(name.equals(property))
-                return resolve(el.getTextContent());
+                    e.missingParent=id;
+                else {
+                    EffectiveProperties pe=parent.getEffectiveProperties();
+                    e.owners.putAll(pe.owners);
+                    e.missingParent=pe.missingParent;
+                    parent.inheritors.add(this);
+                }
+            }
+            for(String name:getOwnProperties().keySet())
+                e.owners.put(name,this);
+            effectiveProperties=e;
         }
-        return null;
+        return e;
     }
 }
@@ -0,0 +1,232 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Persistent cache of the information extracted from POM files (see
+ * POMInfo). Entries are keyed by the absolute path of the POM file,
+ * and are valid as long as the file has the same size and
+ * modification time. If those differ but the content has the same
+ * SHA-1 hash (e.g. the file was touched by a checkout), the entry is
+ * still used and its timestamp is updated. Otherwise the file is
+ * parsed again.
+ *
+ * The cache is read once with load(), and written back with save() if
+ * anything changed. Only the entries of the files looked up since
+ * load() are written, so files deleted or no longer in the tree are
+ * dropped. Lookups are thread safe.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class POMCache {
+
+    /**
+     * Default cache file location, relative to the directory of the
+     * root POM
+     */
+    public static final String DEFAULT_FILE=".pomutil"+File.separator+"pominfo.cache";
+
+    private static final int MAGIC=0x504f4d43;
+    private static final int VERSION=1;
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final byte[] hash;
+        final POMInfo info;
+
+        public Entry(long size,long lastModified,byte[] hash,POMInfo info) {
+            this.size=size;
+            this.lastModified=lastModified;
+            this.hash=hash;
+            this.info=info;
+        }
+    }
+
+    private final File cacheFile;
+    private final Map<String,Entry> entries=new ConcurrentHashMap<String,Entry>();
+    /**
+     * Paths of the files looked up since load()
+     */
+    private final Set<String> used=Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private volatile boolean modified=false;
+    private final AtomicInteger hits=new AtomicInteger();
+    private final AtomicInteger misses=new AtomicInteger();
+
+    public POMCache(File cacheFile) {
+        this.cacheFile=cacheFile;
+    }
+
+    public File getFile() {
+        return cacheFile;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Reads the cache file. A missing, unreadable or old format cache
+     * file results in an empty cache.
+     */
+    public void load() {
+        entries.clear();
+        used.clear();
+        if(!cacheFile.isFile())
+            return;
+        try {
+            DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if(in.readInt()!=MAGIC||in.readInt()!=VERSION)
+                    return;
+                int n=in.readInt();
+                for(int i=0;i<n;i++) {
+                    String path=in.readUTF();
+                    long size=in.readLong();
+                    long lastModified=in.readLong();
+                    byte[] hash=new byte[in.readUnsignedByte()];
+                    in.readFully(hash);
+                    entries.put(path,new Entry(size,lastModified,hash,POMInfo.readFrom(in)));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Truncated or corrupt cache, start over
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the cache file if it was modified since it was loaded, or
+     * if some entries were not used. Only the used entries are
+     * written. The file is written to a temporary file first, and
+     * renamed.
+     */
+    public void save() throws IOException {
+        if(!modified&&used.size()==entries.size())
+            return;
+        File dir=cacheFile.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory()&&!dir.mkdirs())
+            throw new IOException("Cannot create "+dir);
+        File tmp=new File(dir,cacheFile.getName()+".tmp");
+        DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            List<String> paths=new ArrayList<String>();
+            for(String path:used)
+                if(entries.containsKey(path))
+                    paths.add(path);
+            out.writeInt(paths.size());
+            for(String path:paths) {
+                Entry e=entries.get(path);
+                out.writeUTF(path);
+                out.writeLong(e.size);
+                out.writeLong(e.lastModified);
+                out.writeByte(e.hash.length);
+                out.write(e.hash);
+                e.info.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+        if(!tmp.renameTo(cacheFile)) {
+            cacheFile.delete();
+            if(!tmp.renameTo(cacheFile))
+                throw new IOException("Cannot rename "+tmp+" to "+cacheFile);
+        }
+        entries.keySet().retainAll(used);
+        modified=false;
+    }
+
+    /**
+     * Returns the information for the POM file, either from the cache,
+     * or by parsing the file
+     */
+    public POMInfo get(File file) throws SAXException, IOException {
+        String path=file.getAbsolutePath();
+        long size=file.length();
+        long lastModified=file.lastModified();
+        used.add(path);
+        Entry e=entries.get(path);
+        if(e!=null&&e.size==size&&e.lastModified==lastModified) {
+            hits.incrementAndGet();
+            return e.info;
+        }
+
+        byte[] content=Files.readAllBytes(file.toPath());
+        if(Stats.enabled)
+            Stats.read(content.length);
+        byte[] hash=sha1(content);
+        POMInfo info;
+        if(e!=null&&Arrays.equals(e.hash,hash)) {
+            hits.incrementAndGet();
+            info=e.info;
+        } else {
+            misses.incrementAndGet();
+            if(Stats.enabled)
+                Stats.count("files.parsed");
+            Object event=Events.beginParse();
+            info=POMInfo.read(file,new ByteArrayInputStream(content));
+            Events.endParse(event,file,false);
+        }
+        entries.put(path,new Entry(content.length,lastModified,hash,info));
+        modified=true;
+        return info;
+    }
+
+    private static byte[] sha1(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * The parts of a POM read-only commands need: coordinates, parent,
+ * modules, properties, and dependency coordinates. It is extracted
+ * from the file using a streaming parser, no DOM is built.
+ *
+ * The extracted values are the same as the values the xp_* paths
+ * give on a DOM: the first occurrence of an element is used, an
+ * absent element is null, and the text is the text content of the
+ * element.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class POMInfo {
+
+    String groupId;
+    String artifactId;
+    String version;
+    String parentGroupId;
+    String parentArtifactId;
+    String parentVersion;
+    final List<String> modules=new ArrayList<String>();
+    final Map<String,String> properties=new LinkedHashMap<String,String>();
+    final List<Artifact> dependencies=new ArrayList<Artifact>();
+    final List<Artifact> dependencyManagement=new ArrayList<Artifact>();
+
+    /**
+     * A dependency being read. Artifact is immutable, so the fields
+     * are collected here first.
+     */
+    private static class Dep {
+        String groupId;
+        String artifactId;
+        String version;
+
+        Artifact toArtifact() {
+            return new Artifact(groupId,artifactId,version);
+        }
+    }
+
+    public static POMInfo read(File file) throws SAXException, IOException {
+        if(Stats.enabled)
+            Stats.parsed(file);
+        Object event=Events.beginParse();
+        POMInfo info=read(file,new BufferedInputStream(new FileInputStream(file)));
+        Events.endParse(event,file,false);
+        return info;
+    }
+
+    /**
+     * Reads the POM information from the stream, and closes it. file
+     * is used for error messages.
+     */
+    public static POMInfo read(File file,InputStream in) throws SAXException, IOException {
+        try {
+            XMLStreamReader reader=XML.getStaxFactory().
+                createXMLStreamReader(file.toURI().toString(),in);
+            try {
+                POMInfo info=new POMInfo();
+                info.read(reader);
+                return info;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new SAXException(file+": "+e.getMessage(),e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void read(XMLStreamReader reader) throws XMLStreamException {
+        // Element names from the document element down to the current element
+        String[] path=new String[8];
+        int depth=0;
+        // Text of the element being captured, and its depth
+        StringBuilder text=null;
+        int textDepth=0;
+        Dep dep=null;
+
+        while(reader.hasNext()) {
+            switch(reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                String name=reader.getLocalName();
+                if(depth<=path.length)
+                    path[depth-1]=name;
+                if(text!=null||!"project".equals(path[0]))
+                    break;
+                if(depth==2) {
+                    if(name.equals("groupId")||
+                       name.equals("artifactId")||
+                       name.equals("version"))
+                        text=new StringBuilder();
+                } else if(depth==3) {
+                    String section=path[1];
+                    if(section.equals("parent")) {
+                        if(name.equals("groupId")||
+                           name.equals("artifactId")||
+                           name.equals("version"))
+                            text=new StringBuilder();
+                    } else if(section.equals("modules")) {
+                        if(name.equals("module"))
+                            text=new StringBuilder();
+                    } else if(section.equals("properties")) {
+                        text=new StringBuilder();
+                    } else if(section.equals("dependencies")) {
+                        dep=new Dep();
+                    }
+                } else if(depth==4) {
+                    if(path[1].equals("dependencies")) {
+                        if(isCoordinate(name))
+                            text=new StringBuilder();
+                    } else if(path[1].equals("dependencyManagement")&&
+                              path[2].equals("dependencies")) {
+                        dep=new Dep();
+                    }
+                } else if(depth==5) {
+                    if(path[1].equals("dependencyManagement")&&
+                       path[2].equals("dependencies")&&
+                       isCoordinate(name))
+                        text=new StringBuilder();
+                }
+                if(text!=null)
+                    textDepth=depth;
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if(text!=null)
+                    text.append(reader.getTextCharacters(),
+                                reader.getTextStart(),
+                                reader.getTextLength());
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                if(text!=null&&depth==textDepth) {
+                    setText(path,depth,dep,text.toString());
+                    text=null;
+                } else if(dep!=null) {
+                    if(depth==3&&path[1].equals("dependencies")) {
+                        dependencies.add(dep.toArtifact());
+                        dep=null;
+                    } else if(depth==4&&path[1].equals("dependencyManagement")) {
+                        dependencyManagement.add(dep.toArtifact());
+                        dep=null;
+                    }
+                }
+                depth--;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes this in the POMCache format
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        writeString(out,groupId);
+        writeString(out,artifactId);
+        writeString(out,version);
+        writeString(out,parentGroupId);
+        writeString(out,parentArtifactId);
+        writeString(out,parentVersion);
+        out.writeInt(modules.size());
+        for(String s:modules)
+            writeString(out,s);
+        out.writeInt(properties.size());
+        for(Map.Entry<String,String> entry:properties.entrySet()) {
+            writeString(out,entry.getKey());
+            writeString(out,entry.getValue());
+        }
+        writeArtifacts(out,dependencies);
+        writeArtifacts(out,dependencyManagement);
+    }
+
+    /**
+     * Reads a POMInfo written by writeTo
+     */
+    static POMInfo readFrom(DataInputStream in) throws IOException {
+        POMInfo info=new POMInfo();
+        info.groupId=readString(in);
+        info.artifactId=readString(in);
+        info.version=readString(in);
+        info.parentGroupId=readString(in);
+        info.parentArtifactId=readString(in);
+        info.parentVersion=readString(in);
+        int n=in.readInt();
+        for(int i=0;i<n;i++)
+            info.modules.add(readString(in));
+        n=in.readInt();
+        for(int i=0;i<n;i++) {
+            String name=readString(in);
+            info.properties.put(name,readString(in));
+        }
+        readArtifacts(in,info.dependencies);
+        readArtifacts(in,info.dependencyManagement);
+        return info;
+    }
+
+    private static void writeArtifacts(DataOutputStream out,List<Artifact> list) throws IOException {
+        out.writeInt(list.size());
+        for(Artifact a:list) {
+            writeString(out,a.groupId);
+            writeString(out,a.artifactId);
+            writeString(out,a.version);
+        }
+    }
+
+    private static void readArtifacts(DataInputStream in,List<Artifact> list) throws IOException {
+        int n=in.readInt();
+        for(int i=0;i<n;i++) {
+            String g=readString(in);
+            String a=readString(in);
+            list.add(new Artifact(g,a,readString(in)));
+        }
+    }
+
+    private static void writeString(DataOutputStream out,String s) throws IOException {
+        if(s==null)
+            out.writeInt(-1);
+        else {
+            byte[] b=s.getBytes("UTF-8");
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n=in.readInt();
+        if(n<0)
+            return null;
+        byte[] b=new byte[n];
+        in.readFully(b);
+        return new String(b,"UTF-8");
+    }
+
+    private static boolean isCoordinate(String name) {
+        return name.equals("groupId")||
+            name.equals("artifactId")||
+            name.equals("version");
+    }
+
+    private void setText(String[] path,int depth,Dep dep,String value) {
+        String name=path[depth-1];
+        if(depth==2) {
+            if(name.equals("groupId")) {
+                if(groupId==null)
+                    groupId=value;
+            } else if(name.equals("artifactId")) {
+                if(artifactId==null)
+                    artifactId=value;
+            } else if(version==null)
+                version=value;
+        } else if(path[1].equals("parent")) {
+            if(name.equals("groupId")) {
+                if(parentGroupId==null)
+                    parentGroupId=value;
+            } else if(name.equals("artifactId")) {
+                if(parentArtifactId==null)
+                    parentArtifactId=value;
+            } else if(parentVersion==null)
+                parentVersion=value;
+        } else if(path[1].equals("modules")) {
+            modules.add(value);
+        } else if(path[1].equals("properties")) {
+            if(!properties.containsKey(name))
+                properties.put(name,value);
+        } else if(dep!=null) {
+            if(name.equals("groupId")) {
+                if(dep.groupId==null)
+                    dep.groupId=value;
+            } else if(name.equals("artifactId")) {
+                if(dep.artifactId==null)
+                    dep.artifactId=value;
+            } else if(dep.version==null)
+                dep.version=value;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Loads a POM tree using a fork-join pool. Sibling modules are parsed
+ * concurrently, each worker thread using its own DocumentBuilder. The
+ * resulting tree is the same as the one built by new POM(File):
+ * children are kept in <module> order, and POMs are registered in
+ * POM.allPOMs in the same (post) order once all files are parsed.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class POMLoader {
+
+    private final int nThreads;
+    private boolean readOnly=false;
+    private POMCache cache;
+
+    private class LoadTask extends RecursiveTask<POM> {
+        private static final long serialVersionUID=1L;
+
+        private final File file;
+
+        public LoadTask(File file) {
+            this.file=file;
+        }
+
+        protected POM compute() {
+            POM pom;
+            try {
+                pom=parse(file);
+            } catch (Exception e) {
+                throw new LoadException(file,e);
+            }
+            String[] modules=pom.getModules();
+            List<LoadTask> tasks=new ArrayList<LoadTask>(modules.length);
+            for(String module:modules)
+                tasks.add(new LoadTask(pom.getModuleFile(module)));
+            invokeAll(tasks);
+            for(LoadTask task:tasks)
+                pom.addChild(task.join());
+            return pom;
+        }
+    }
+
+    private static class LoadException extends RuntimeException {
+        private static final long serialVersionUID=1L;
+
+        final File file;
+
+        public LoadException(File file,Exception cause) {
+            super(file.toString(),cause);
+            this.file=file;
+        }
+    }
+
+    /**
+     * Creates a loader using one worker per available processor
+     */
+    public POMLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader using nThreads workers. If nThreads is 1, the
+     * tree is loaded on the calling thread.
+     */
+    public POMLoader(int nThreads) {
+        if(nThreads<1)
+            throw new IllegalArgumentException("Invalid number of threads:"+nThreads);
+        this.nThreads=nThreads;
+    }
+
+    public int getThreads() {
+        return nThreads;
+    }
+
+    /**
+     * If set, POMs are loaded read-only using a streaming parser,
+     * without building a DOM. See POMInfo.
+     */
+    public void setReadOnly(boolean b) {
+        readOnly=b;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Sets the cache used to load read-only POMs. POMs loaded for
+     * modification are always parsed.
+     */
+    public void setCache(POMCache cache) {
+        this.cache=cache;
+    }
+
+    public POMCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Loads the POM tree rooted at file, and registers all POMs in
+     * POM.allPOMs
+     */
+    public POM load(File file) throws SAXException, IOException {
+        POM root=loadUnregistered(file);
+        register(root);
+        return root;
+    }
+
+    /**
+     * Loads the POM tree rooted at file without registering the POMs
+     * in POM.allPOMs
+     */
+    POM loadUnregistered(File file) throws SAXException, IOException {
+        POM root;
+        if(nThreads==1)
+            root=loadTree(file);
+        else {
+            ForkJoinPool pool=new ForkJoinPool(nThreads);
+            try {
+                root=pool.invoke(new LoadTask(file));
+            } catch (LoadException e) {
+                Throwable cause=e.getCause();
+                if(cause instanceof SAXException)
+                    throw (SAXException)cause;
+                if(cause instanceof IOException)
+                    throw (IOException)cause;
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Parses a single POM file, without its modules
+     */
+    POM parse(File file) throws SAXException, IOException {
+        if(readOnly)
+            return new POM(file,cache==null?POMInfo.read(file):cache.get(file));
+        else {
+            Object event=Events.beginParse();
+            POM pom=new POM(file,XML.getDocBuilder().parse(file));
+            Events.endParse(event,file,true);
+            if(Stats.enabled)
+                Stats.parsed(file);
+            return pom;
+        }
+    }
+
+    private POM loadTree(File file) throws SAXException, IOException {
+        POM pom=parse(file);
+        for(String module:pom.getModules())
+            pom.addChild(loadTree(pom.getModuleFile(module)));
+        return pom;
+    }
+
+    private static void register(POM pom) {
+        for(POM child:pom.getChildren())
+            register(child);
+        pom.register();
+    }
+}
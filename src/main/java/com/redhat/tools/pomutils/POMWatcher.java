@@ -0,0 +1,422 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a loaded POM tree up to date with the files on the disk.
+ *
+ * The directories of all POM files in the tree are watched. When a
+ * POM file changes, only that file is parsed again, and the new POM
+ * replaces the old one in the tree and in the registry (POM.allPOMs,
+ * or a map given by the caller). Modules of the old POM that are still
+ * listed are kept, new modules are loaded, and removed modules are
+ * dropped with their subtrees. The properties cached by the POMs
+ * inheriting from the old POM are invalidated, and the listeners are
+ * told about each replaced POM, so they can update their indexes.
+ *
+ * Events are collected until no new event arrives for the quiet
+ * period, or until the maximum delay passes, and then applied
+ * together. A git checkout touching hundreds of files results in one
+ * reload. Files whose size and modification time did not change since
+ * they were loaded are not parsed again. If the watch service loses
+ * events, the whole tree is loaded again.
+ *
+ * Changes are applied on the watcher thread, or by update(), holding
+ * the lock of the watcher. The lock is the watcher itself, or an object
+ * given by the caller. Code using the tree while the watcher is
+ * running should synchronize on the lock.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class POMWatcher {
+
+    /**
+     * Notified for each POM replaced in the tree. oldPom is null for a
+     * new POM, and newPom is null for a removed POM.
+     */
+    public interface Listener {
+        void replaced(POM oldPom,POM newPom);
+    }
+
+    private final POMLoader loader;
+    private final Map<String,POM> registry;
+    private final WatchService watcher;
+    private final List<Listener> listeners=new ArrayList<Listener>();
+    private final Object lock;
+    private POM root;
+    /**
+     * POMs by their absolute, normalized file paths
+     */
+    private final Map<Path,POM> byFile=new HashMap<Path,POM>();
+    /**
+     * POM -> the POM listing it as a module
+     */
+    private final Map<POM,POM> treeParents=new IdentityHashMap<POM,POM>();
+    /**
+     * POM -> {size, modification time} when it was loaded
+     */
+    private final Map<POM,long[]> stamps=new IdentityHashMap<POM,long[]>();
+    /**
+     * Watched directories, and the number of POMs in each
+     */
+    private final Map<Path,WatchKey> keys=new HashMap<Path,WatchKey>();
+    private final Map<Path,Integer> counts=new HashMap<Path,Integer>();
+    /**
+     * Changed files waiting to be applied
+     */
+    private final Set<Path> pending=new LinkedHashSet<Path>();
+    private boolean overflow=false;
+    private long quietPeriod=200;
+    private long maxDelay=2000;
+    private int reloads=0;
+    private Thread thread;
+
+    /**
+     * @param root The root of a loaded tree
+     * @param registry The map of POMs by groupId:artifactId to update,
+     * usually POM.allPOMs
+     * @param loader Used to load new modules, and the whole tree if events
+     * are lost. POMs are loaded read-only if the loader is read-only.
+     */
+    public POMWatcher(POM root,Map<String,POM> registry,POMLoader loader) throws IOException {
+        this(root,registry,loader,null);
+    }
+
+    /**
+     * @param lock The lock held while changes are applied, or null to
+     * use the watcher
+     */
+    public POMWatcher(POM root,Map<String,POM> registry,POMLoader loader,Object lock) throws IOException {
+        this.lock=lock==null?this:lock;
+        this.root=root;
+        this.registry=registry;
+        this.loader=loader;
+        watcher=FileSystems.getDefault().newWatchService();
+        addTree(root,null);
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Sets how long to wait for more events before applying them, in
+     * milliseconds
+     */
+    public void setQuietPeriod(long ms) {
+        quietPeriod=ms;
+    }
+
+    /**
+     * Sets the longest time to collect events before applying them, in
+     * milliseconds
+     */
+    public void setMaxDelay(long ms) {
+        maxDelay=ms;
+    }
+
+    /**
+     * Returns the root of the tree. The root changes if the root POM
+     * file is loaded again.
+     */
+    public POM getRoot() {
+        synchronized(lock) {
+            return root;
+        }
+    }
+
+    /**
+     * Returns the number of batches applied so far
+     */
+    public int getReloads() {
+        synchronized(lock) {
+            return reloads;
+        }
+    }
+
+    /**
+     * Starts watching on a background thread
+     */
+    public synchronized void start() {
+        if(thread!=null)
+            return;
+        thread=new Thread(new Runnable() {
+                public void run() {
+                    watch();
+                }
+            },"pom-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching
+     */
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    private void watch() {
+        try {
+            while(true) {
+                collect(watcher.take());
+                long start=System.currentTimeMillis();
+                WatchKey key;
+                while(System.currentTimeMillis()-start<maxDelay&&
+                      (key=watcher.poll(quietPeriod,TimeUnit.MILLISECONDS))!=null)
+                    collect(key);
+                synchronized(lock) {
+                    apply();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Applies the changes reported so far, without waiting for the
+     * quiet period. Call this before using the tree to see the changes
+     * made just before.
+     */
+    public void update() {
+        synchronized(lock) {
+            WatchKey key;
+            while((key=watcher.poll())!=null)
+                collect(key);
+            apply();
+        }
+    }
+
+    private void collect(WatchKey key) {
+        synchronized(lock) {
+            Path dir=(Path)key.watchable();
+            for(WatchEvent<?> event:key.pollEvents()) {
+                if(event.kind()==StandardWatchEventKinds.OVERFLOW)
+                    overflow=true;
+                else
+                    pending.add(dir.resolve((Path)event.context()));
+            }
+            if(!key.reset())
+                keys.remove(dir);
+        }
+    }
+
+    private void apply() {
+        if(overflow) {
+            overflow=false;
+            pending.clear();
+            reloadAll();
+            reloads++;
+            return;
+        }
+        if(pending.isEmpty())
+            return;
+        List<Path> changed=new ArrayList<Path>(pending);
+        pending.clear();
+        boolean reloaded=false;
+        for(Path path:changed) {
+            POM pom=byFile.get(path);
+            if(pom!=null&&isChanged(pom))
+                if(reload(pom))
+                    reloaded=true;
+        }
+        if(reloaded)
+            reloads++;
+    }
+
+    private boolean isChanged(POM pom) {
+        File f=pom.getFile();
+        long[] stamp=stamps.get(pom);
+        return stamp==null||f.length()!=stamp[0]||f.lastModified()!=stamp[1];
+    }
+
+    /**
+     * Records the current sizes and modification times of the POM
+     * files, so the files written by the caller are not loaded again
+     */
+    public void restamp() {
+        synchronized(lock) {
+            for(POM pom:byFile.values())
+                stamps.put(pom,stamp(pom.getFile()));
+        }
+    }
+
+    private static long[] stamp(File f) {
+        return new long[] {f.length(),f.lastModified()};
+    }
+
+    /**
+     * Parses a POM file again, and replaces the old POM with it
+     */
+    private boolean reload(POM old) {
+        File file=old.getFile();
+        if(!file.isFile())
+            // Removed with its directory, the parent drops it when its modules change
+            return false;
+        POM pom;
+        long[] stamp=stamp(file);
+        try {
+            pom=loader.parse(file);
+        } catch (Exception e) {
+            // Probably being written, keep the old POM until the next change
+            System.err.println("Cannot load "+file+":"+e);
+            return false;
+        }
+        Map<Path,POM> oldChildren=new HashMap<Path,POM>();
+        for(POM child:old.getChildren())
+            oldChildren.put(toPath(child.getFile()),child);
+        POM parent=treeParents.remove(old);
+        addPOM(pom,parent);
+        removePOM(old);
+        stamps.put(pom,stamp);
+        for(String module:pom.getModules()) {
+            File moduleFile=pom.getModuleFile(module);
+            POM child=oldChildren.remove(toPath(moduleFile));
+            if(child!=null) {
+                treeParents.put(child,pom);
+                pom.addChild(child);
+            } else {
+                try {
+                    child=loader.loadUnregistered(moduleFile);
+                } catch (Exception e) {
+                    System.err.println("Cannot load module "+module+" of "+file+":"+e);
+                    continue;
+                }
+                pom.addChild(child);
+                addTree(child,pom);
+            }
+        }
+        for(POM child:oldChildren.values())
+            removeTree(child);
+        if(parent==null)
+            root=pom;
+        else
+            parent.replaceChild(old,pom);
+        // POMs inheriting properties from the old POM look up the new one
+        old.invalidate();
+        for(Listener l:listeners)
+            l.replaced(old,pom);
+        return true;
+    }
+
+    private void reloadAll() {
+        POM newRoot;
+        try {
+            newRoot=loader.loadUnregistered(root.getFile());
+        } catch (Exception e) {
+            System.err.println("Cannot load "+root.getFile()+":"+e);
+            return;
+        }
+        removeTree(root);
+        root=newRoot;
+        addTree(root,null);
+    }
+
+    private void addTree(POM pom,POM parent) {
+        addPOM(pom,parent);
+        stamps.put(pom,stamp(pom.getFile()));
+        for(POM child:pom.getChildren())
+            addTree(child,pom);
+        for(Listener l:listeners)
+            l.replaced(null,pom);
+    }
+
+    private void removeTree(POM pom) {
+        for(POM child:pom.getChildren())
+            removeTree(child);
+        treeParents.remove(pom);
+        removePOM(pom);
+        for(Listener l:listeners)
+            l.replaced(pom,null);
+    }
+
+    /**
+     * Registers a POM, and watches its directory
+     */
+    private void addPOM(POM pom,POM parent) {
+        Path path=toPath(pom.getFile());
+        byFile.put(path,pom);
+        if(parent!=null)
+            treeParents.put(pom,parent);
+        registry.put(pom.getId(),pom);
+        Path dir=path.getParent();
+        Integer n=counts.get(dir);
+        counts.put(dir,n==null?1:n+1);
+        if(!keys.containsKey(dir)) {
+            try {
+                keys.put(dir,dir.register(watcher,
+                                          StandardWatchEventKinds.ENTRY_CREATE,
+                                          StandardWatchEventKinds.ENTRY_MODIFY,
+                                          StandardWatchEventKinds.ENTRY_DELETE));
+            } catch (IOException e) {
+                System.err.println("Cannot watch "+dir+":"+e);
+            }
+        }
+    }
+
+    /**
+     * Unregisters a POM, and stops watching its directory if no other
+     * POM is there
+     */
+    private void removePOM(POM pom) {
+        Path path=toPath(pom.getFile());
+        if(byFile.get(path)==pom)
+            byFile.remove(path);
+        stamps.remove(pom);
+        String id=pom.getId();
+        if(registry.get(id)==pom)
+            registry.remove(id);
+        Path dir=path.getParent();
+        Integer n=counts.get(dir);
+        if(n==null||n<=1) {
+            counts.remove(dir);
+            WatchKey key=keys.remove(dir);
+            if(key!=null)
+                key.cancel();
+        } else
+            counts.put(dir,n-1);
+    }
+
+    private static Path toPath(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.LinkedHashSet;
+
+/**
+ * Writes a set of POMs in parallel. Each POM is serialized by a worker
+ * thread, using the thread's Transformer, into a temporary file next
+ * to the POM file. Once all temporary files are written, they are
+ * renamed over the POM files. A failure while serializing leaves all
+ * POM files untouched, and a crash never leaves a partially written
+ * POM file.
+ *
+ * If sync is set, the temporary files are flushed to the disk before
+ * the renames, and the directories after, so the new versions survive
+ * a system crash.
+ *
+ * A POM that only has text changes is not serialized. The changed
+ * texts are spliced into the original file instead, so formatting,
+ * comments and the XML declaration are kept. See SourceSplice.
+ *
+ * A POM whose new contents are identical to its file is not written,
+ * so the file's modification time does not change.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class POMWriter {
+
+    private final int nThreads;
+    private boolean sync=false;
+    private boolean preserveFormat=true;
+    private int nWritten;
+    private int nSkipped;
+
+    public POMWriter(int nThreads) {
+        if(nThreads<1)
+            throw new IllegalArgumentException("Invalid number of threads:"+nThreads);
+        this.nThreads=nThreads;
+    }
+
+    public void setSync(boolean b) {
+        sync=b;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * If set (the default), POMs whose structure is not modified are
+     * written by replacing the changed element texts in the original
+     * file, keeping its formatting. Otherwise, all POMs are serialized.
+     */
+    public void setPreserveFormat(boolean b) {
+        preserveFormat=b;
+    }
+
+    public boolean isPreserveFormat() {
+        return preserveFormat;
+    }
+
+    /**
+     * Returns the number of files written by the last write()
+     */
+    public int getWritten() {
+        return nWritten;
+    }
+
+    /**
+     * Returns the number of files the last write() skipped because
+     * they were unchanged
+     */
+    public int getSkipped() {
+        return nSkipped;
+    }
+
+    /**
+     * Writes the POMs whose contents changed, and clears the modified
+     * flags of all POMs
+     */
+    public void write(Collection<POM> poms) throws Exception {
+        nWritten=0;
+        nSkipped=0;
+        final POM[] arr=poms.toArray(new POM[poms.size()]);
+        final File[] tmp=new File[arr.length];
+        try {
+            Workers.run(arr.length,nThreads,new Workers.Range() {
+                    public void run(int from,int to) throws Exception {
+                        writeTemp(arr,tmp,from,to);
+                    }
+                });
+        } catch (Exception e) {
+            for(File f:tmp)
+                if(f!=null)
+                    f.delete();
+            throw e;
+        }
+
+        Set<File> dirs=new LinkedHashSet<File>();
+        for(int i=0;i<arr.length;i++) {
+            File file=arr[i].getFile();
+            if(tmp[i]!=null) {
+                try {
+                    XML.commit(tmp[i],file);
+                } catch (IOException e) {
+                    for(int j=i;j<tmp.length;j++)
+                        if(tmp[j]!=null)
+                            tmp[j].delete();
+                    throw new IOException("Cannot write "+file+" after writing "+
+                                          nWritten+" files",e);
+                }
+                nWritten++;
+                if(sync)
+                    dirs.add(file.getAbsoluteFile().getParentFile());
+            } else
+                nSkipped++;
+            arr[i].setWritten();
+        }
+        for(File dir:dirs)
+            XML.syncDirectory(dir);
+    }
+
+    private void writeTemp(POM[] poms,File[] tmp,int from,int to) throws Exception {
+        for(int i=from;i<to;i++) {
+            if(poms[i].isReadOnly())
+                throw new RuntimeException("POM is loaded read-only:"+poms[i].getFile());
+            byte[] content=preserveFormat?poms[i].getEditedSource():null;
+            if(content==null)
+                content=XML.toBytes(poms[i].doc);
+            if(!XML.hasContent(poms[i].getFile(),content))
+                tmp[i]=XML.writeTemp(content,poms[i].getFile(),sync);
+        }
+    }
+}
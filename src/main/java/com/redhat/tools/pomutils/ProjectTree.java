@@ -0,0 +1,256 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.HashSet;
+
+/**
+ * The projects of a module map, with their POM trees, the dependency
+ * graph of all loaded POMs, and the module locator. The tree is loaded
+ * once, and then shared by all GenerateRootPom instances working on
+ * build sets of the same module map. Once loaded, it is not modified,
+ * so it can be used by several threads.
+ *
+ * Each POM file is parsed once, even if it is reached by several
+ * module map entries, as a module of another project, or through
+ * different paths (symbolic links, ".."). POMs are identified by
+ * the canonical paths of their files. Such duplicates, and different
+ * POM files with the same groupId:artifactId, are reported when the
+ * tree is loaded. Projects are loaded in the order of their names, so
+ * the result does not depend on hash order.
+ *
+ * The POM files are parsed read-only by a POMLoader, so they are
+ * parsed using the threads and the cache of the loader. All files
+ * reachable from the module map are parsed first, one level of
+ * modules at a time, and then the trees are built in project order.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class ProjectTree {
+
+    private final Manifest mf;
+    private final File allManifest;
+    private final POMLoader loader;
+    private final Map<String,POM> pomMap=new HashMap<String,POM>();
+    /**
+     * Project root POM -> project name. If several projects have the
+     * same root POM, the first one in name order.
+     */
+    private final Map<POM,String> projectNames=new IdentityHashMap<POM,String>();
+    /**
+     * POMs parsed before the trees are built, by the canonical path of
+     * the POM file
+     */
+    private final Map<String,POM> preparsed=new HashMap<String,POM>();
+    /**
+     * Loaded POMs by the canonical path of the POM file
+     */
+    private final Map<String,POM> parsed=new HashMap<String,POM>();
+    /**
+     * The project that loaded each POM, for reporting duplicates
+     */
+    private final Map<POM,String> loadedBy=new HashMap<POM,String>();
+    private final List<String> duplicates=new ArrayList<String>();
+    /**
+     * POMs whose modules are being loaded
+     */
+    private final Set<POM> loading=new HashSet<POM>();
+    private DependencyGraph graph;
+    private ModuleLocator locator;
+    private boolean loaded=false;
+
+    /**
+     * @param mf The manifest containing the module map
+     * @param allManifest The manifest file, POM paths in the module map
+     * are relative to its directory
+     */
+    public ProjectTree(Manifest mf,File allManifest) {
+        this(mf,allManifest,new POMLoader());
+    }
+
+    /**
+     * @param loader Used to parse the POM files. It is set to load
+     * POMs read-only.
+     */
+    public ProjectTree(Manifest mf,File allManifest,POMLoader loader) {
+        this.mf=mf;
+        this.allManifest=allManifest;
+        this.loader=loader;
+        loader.setReadOnly(true);
+    }
+
+    /**
+     * Loads the POMs of all projects in the module map, if not
+     * already loaded
+     */
+    public synchronized void load() throws Exception {
+        if(loaded)
+            return;
+        Stats.phase("load");
+        String[] projects=mf.getAllProjects();
+        Arrays.sort(projects);
+        List<File> roots=new ArrayList<File>(projects.length);
+        for(String x:projects)
+            roots.add(new File(allManifest.getParentFile(),mf.getPOMForProject(x)));
+        parseAll(roots);
+        for(String x:projects) {
+            File pomPath=new File(allManifest.getParentFile(),mf.getPOMForProject(x));
+            POM pom=load(pomPath,x);
+            pomMap.put(x,pom);
+            if(!projectNames.containsKey(pom))
+                projectNames.put(pom,x);
+        }
+        for(String msg:duplicates)
+            System.out.println(msg);
+        Stats.phase("graph");
+        graph=new DependencyGraph(POM.allPOMs.values());
+        locator=new ModuleLocator();
+        for(POM p:pomMap.values())
+            locator.addTree(p);
+        preparsed.clear();
+        loaded=true;
+    }
+
+    /**
+     * Parses the POM files reachable from roots, each file once
+     */
+    private void parseAll(List<File> roots) throws Exception {
+        List<File> level=roots;
+        while(!level.isEmpty()) {
+            final List<File> files=new ArrayList<File>();
+            List<String> paths=new ArrayList<String>();
+            for(File file:level) {
+                String path=file.getCanonicalPath();
+                if(!preparsed.containsKey(path)) {
+                    preparsed.put(path,null);
+                    files.add(file);
+                    paths.add(path);
+                }
+            }
+            final POM[] poms=new POM[files.size()];
+            Workers.run(poms.length,loader.getThreads(),new Workers.Range() {
+                    public void run(int from,int to) throws Exception {
+                        for(int i=from;i<to;i++)
+                            poms[i]=loader.parse(files.get(i));
+                    }
+                });
+            level=new ArrayList<File>();
+            for(int i=0;i<poms.length;i++) {
+                preparsed.put(paths.get(i),poms[i]);
+                for(String module:poms[i].getModules())
+                    level.add(poms[i].getModuleFile(module));
+            }
+        }
+    }
+
+    /**
+     * Loads the POM tree at file, reusing the POMs already loaded
+     */
+    private POM load(File file,String project) throws Exception {
+        String path=file.getCanonicalPath();
+        POM pom=parsed.get(path);
+        if(pom!=null) {
+            if(loading.contains(pom))
+                throw new RuntimeException("Circular module reference:"+file);
+            String by=loadedBy.get(pom);
+            if(!pom.getFile().getPath().equals(file.getPath()))
+                duplicates.add("Project "+project+": "+file+" is the same file as "+
+                               pom.getFile()+" loaded by project "+by);
+            else
+                duplicates.add("Project "+project+": "+file+" is already loaded by project "+by);
+            return pom;
+        }
+        pom=preparsed.get(path);
+        if(pom==null||!pom.getFile().getPath().equals(file.getPath()))
+            // Reached through another path first while parsing
+            pom=loader.parse(file);
+        parsed.put(path,pom);
+        loadedBy.put(pom,project);
+        loading.add(pom);
+        for(String module:pom.getModules())
+            pom.addChild(load(pom.getModuleFile(module),project));
+        loading.remove(pom);
+        POM old=POM.allPOMs.get(pom.getId());
+        if(old!=null&&old!=pom)
+            duplicates.add(pom.getId()+" is defined in "+old.getFile()+" and "+file+
+                           ", using "+file);
+        pom.register();
+        return pom;
+    }
+
+    /**
+     * Returns the duplicate and aliased POM files found while loading
+     */
+    public List<String> getDuplicates() {
+        return duplicates;
+    }
+
+    public Manifest getManifest() {
+        return mf;
+    }
+
+    public String[] getProjects() {
+        return mf.getAllProjects();
+    }
+
+    /**
+     * Returns the root POM of a project, or null
+     */
+    public POM getProject(String name) {
+        return pomMap.get(name);
+    }
+
+    /**
+     * Returns the name of the project whose root POM is p, or null
+     */
+    public String getProjectName(POM p) {
+        return projectNames.get(p);
+    }
+
+    /**
+     * Returns the module directory of the project whose root POM is
+     * p, relative to the manifest, or null
+     */
+    public String getModulePath(POM p) {
+        String name=projectNames.get(p);
+        return name==null?null:mf.getModuleForProject(name);
+    }
+
+    public Collection<POM> getProjectPOMs() {
+        return pomMap.values();
+    }
+
+    public DependencyGraph getGraph() {
+        return graph;
+    }
+
+    public ModuleLocator getLocator() {
+        return locator;
+    }
+}
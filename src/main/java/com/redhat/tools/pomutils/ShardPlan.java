@@ -0,0 +1,178 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Splits a set of projects with dependencies between them into
+ * shards that are built in parallel, each shard building its projects
+ * one after the other.
+ *
+ * Projects are scheduled using critical path list scheduling: a
+ * project becomes ready when all the projects it depends on are
+ * scheduled, and among the ready projects, the one with the longest
+ * path of dependent projects after it (counting its own cost) is
+ * scheduled first. It is placed on the shard where it can start the
+ * earliest, considering that it has to wait for its dependencies
+ * built on other shards. Projects in a dependency cycle are scheduled
+ * together on one shard.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class ShardPlan {
+
+    private final List<List<Integer>> shards;
+    private final double[] shardCost;
+    private final double[] shardFinish;
+
+    /**
+     * Builds the plan
+     *
+     * @param edges For every project, the projects it depends on
+     * @param costs Build cost of every project
+     * @param nShards Number of shards
+     */
+    public ShardPlan(int[][] edges,double[] costs,int nShards) {
+        if(nShards<1)
+            throw new IllegalArgumentException("Invalid number of shards:"+nShards);
+        int[][] components=DependencyGraph.getComponents(edges);
+        final int nc=components.length;
+        int[] componentOf=new int[edges.length];
+        for(int c=0;c<nc;c++)
+            for(int x:components[c])
+                componentOf[x]=c;
+
+        // Edges, and the number of unscheduled dependencies, between components
+        List<List<Integer>> dependencies=new ArrayList<List<Integer>>(nc);
+        List<List<Integer>> dependents=new ArrayList<List<Integer>>(nc);
+        double[] cost=new double[nc];
+        for(int c=0;c<nc;c++) {
+            dependencies.add(new ArrayList<Integer>());
+            dependents.add(new ArrayList<Integer>());
+        }
+        int[] waiting=new int[nc];
+        boolean[] seen=new boolean[nc];
+        for(int c=0;c<nc;c++) {
+            for(int x:components[c]) {
+                cost[c]+=costs[x];
+                for(int d:edges[x]) {
+                    int dc=componentOf[d];
+                    if(dc!=c&&!seen[dc]) {
+                        seen[dc]=true;
+                        dependencies.get(c).add(dc);
+                        dependents.get(dc).add(c);
+                        waiting[c]++;
+                    }
+                }
+            }
+            for(Integer d:dependencies.get(c))
+                seen[d]=false;
+        }
+
+        // Components are in build order, so all dependents of a
+        // component come after it
+        final double[] priority=new double[nc];
+        for(int c=nc-1;c>=0;c--) {
+            double max=0;
+            for(Integer d:dependents.get(c))
+                max=Math.max(max,priority[d]);
+            priority[c]=cost[c]+max;
+        }
+
+        PriorityQueue<Integer> ready=new PriorityQueue<Integer>(Math.max(1,nc),new Comparator<Integer>() {
+                public int compare(Integer a,Integer b) {
+                    int x=Double.compare(priority[b],priority[a]);
+                    return x!=0?x:a-b;
+                }
+            });
+        for(int c=0;c<nc;c++)
+            if(waiting[c]==0)
+                ready.add(c);
+
+        shards=new ArrayList<List<Integer>>(nShards);
+        for(int s=0;s<nShards;s++)
+            shards.add(new ArrayList<Integer>());
+        shardCost=new double[nShards];
+        shardFinish=new double[nShards];
+        double[] finish=new double[nc];
+        while(!ready.isEmpty()) {
+            int c=ready.poll();
+            double depsDone=0;
+            for(Integer d:dependencies.get(c))
+                depsDone=Math.max(depsDone,finish[d]);
+            int best=0;
+            double bestStart=Math.max(shardFinish[0],depsDone);
+            for(int s=1;s<nShards;s++) {
+                double start=Math.max(shardFinish[s],depsDone);
+                if(start<bestStart||(start==bestStart&&shardFinish[s]<shardFinish[best])) {
+                    best=s;
+                    bestStart=start;
+                }
+            }
+            finish[c]=bestStart+cost[c];
+            shardFinish[best]=finish[c];
+            shardCost[best]+=cost[c];
+            for(int x:components[c])
+                shards.get(best).add(x);
+            for(Integer d:dependents.get(c))
+                if(--waiting[d]==0)
+                    ready.add(d);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the projects of a shard, in build order
+     */
+    public List<Integer> getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * Returns the sum of the costs of the projects in the shard
+     */
+    public double getCost(int shard) {
+        return shardCost[shard];
+    }
+
+    /**
+     * Returns the estimated time the shard is done, including the
+     * time it waits for projects built in other shards
+     */
+    public double getFinish(int shard) {
+        return shardFinish[shard];
+    }
+
+    /**
+     * Returns the estimated time all shards are done
+     */
+    public double getMakespan() {
+        double max=0;
+        for(double d:shardFinish)
+            max=Math.max(max,d);
+        return max;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.nio.charset.Charset;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.Element;
+
+/**
+ * Applies text edits made on a DOM to the source of the document, so
+ * the rest of the file (whitespace, attribute order, comments, the XML
+ * declaration) is kept as is.
+ *
+ * Each edited element is located in the source by its position in the
+ * element tree (the index of the element among its parent's element
+ * children, at every level), so the structure of the document must
+ * not have changed since it was parsed. The text between the start
+ * and end tags of the element is replaced. An edit is only applied if
+ * that text is plain character data equal to the old text of the
+ * element, otherwise apply() returns null and the document should be
+ * serialized instead.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class SourceSplice {
+
+    /**
+     * A change of the text content of an element
+     */
+    public static class TextEdit {
+        final Element element;
+        final String oldText;
+        String newText;
+
+        public TextEdit(Element element,String oldText,String newText) {
+            this.element=element;
+            this.oldText=oldText;
+            this.newText=newText;
+        }
+    }
+
+    /**
+     * Source span of an element's content
+     */
+    private static class Span {
+        final TextEdit edit;
+        int start=-1;
+        int end=-1;
+
+        Span(TextEdit edit) {
+            this.edit=edit;
+        }
+    }
+
+    private SourceSplice() {}
+
+    /**
+     * Applies the edits to source, which is encoded using
+     * encoding. Returns the new source, or null if the edits cannot be
+     * applied to the source.
+     */
+    public static byte[] apply(byte[] source,String encoding,Collection<TextEdit> edits) {
+        Charset charset;
+        try {
+            charset=Charset.forName(encoding==null?"UTF-8":encoding);
+        } catch (Exception e) {
+            return null;
+        }
+        String s=new String(source,charset);
+        // Bytes outside the edits must be written back unchanged
+        if(!Arrays.equals(s.getBytes(charset),source))
+            return null;
+
+        Map<String,Span> spans=new HashMap<String,Span>();
+        for(TextEdit edit:edits) {
+            String key=getKey(edit.element);
+            if(key==null)
+                return null;
+            spans.put(key,new Span(edit));
+        }
+        if(!scan(s,spans))
+            return null;
+
+        List<Span> list=new ArrayList<Span>(spans.values());
+        // Apply from the end, so the offsets of the remaining spans don't change
+        Collections.sort(list,new Comparator<Span>() {
+                public int compare(Span a,Span b) {
+                    return b.start-a.start;
+                }
+            });
+        StringBuilder buf=new StringBuilder(s);
+        for(Span span:list) {
+            if(span.start<0||span.end<span.start)
+                return null;
+            String raw=s.substring(span.start,span.end);
+            String text=unescape(raw);
+            if(text==null||!text.equals(span.edit.oldText))
+                return null;
+            buf.replace(span.start,span.end,escape(span.edit.newText));
+        }
+        return buf.toString().getBytes(charset);
+    }
+
+    /**
+     * Returns the position of the element in the element tree as
+     * "i/j/k...", where each number is the index of an element among
+     * the element children of its parent
+     */
+    private static String getKey(Element el) {
+        StringBuilder buf=new StringBuilder();
+        Node node=el;
+        while(node!=null&&node.getNodeType()==Node.ELEMENT_NODE) {
+            int index=0;
+            for(Node n=node.getPreviousSibling();n!=null;n=n.getPreviousSibling())
+                if(n.getNodeType()==Node.ELEMENT_NODE)
+                    index++;
+            if(buf.length()>0)
+                buf.insert(0,'/');
+            buf.insert(0,index);
+            node=node.getParentNode();
+        }
+        if(node==null||node.getNodeType()!=Node.DOCUMENT_NODE)
+            return null;
+        return buf.toString();
+    }
+
+    /**
+     * Scans the source, and fills in the content spans of the
+     * elements in spans. Returns false if the source cannot be scanned.
+     */
+    private static boolean scan(String s,Map<String,Span> spans) {
+        int n=s.length();
+        // Element indexes of the current path, and number of element
+        // children seen at each level
+        int[] path=new int[16];
+        int[] counts=new int[17];
+        int depth=0;
+        Span[] open=new Span[16];
+        StringBuilder key=new StringBuilder();
+        int pos=0;
+        while(pos<n) {
+            int lt=s.indexOf('<',pos);
+            if(lt<0)
+                break;
+            if(s.startsWith("<!--",lt)) {
+                pos=skipPast(s,lt+4,"-->");
+            } else if(s.startsWith("<![CDATA[",lt)) {
+                pos=skipPast(s,lt+9,"]]>");
+            } else if(s.startsWith("<?",lt)) {
+                pos=skipPast(s,lt+2,"?>");
+            } else if(s.startsWith("<!",lt)) {
+                pos=skipDeclaration(s,lt+2);
+            } else if(s.startsWith("</",lt)) {
+                int gt=s.indexOf('>',lt);
+                if(gt<0||depth==0)
+                    return false;
+                depth--;
+                Span span=depth<open.length?open[depth]:null;
+                if(span!=null) {
+                    span.end=lt;
+                    open[depth]=null;
+                }
+                pos=gt+1;
+            } else {
+                int gt=skipTag(s,lt+1);
+                if(gt<0)
+                    return false;
+                boolean empty=s.charAt(gt-1)=='/';
+                if(depth>=path.length) {
+                    path=Arrays.copyOf(path,path.length*2);
+                    counts=Arrays.copyOf(counts,counts.length*2);
+                    open=Arrays.copyOf(open,open.length*2);
+                }
+                path[depth]=counts[depth]++;
+                counts[depth+1]=0;
+                key.setLength(0);
+                for(int i=0;i<=depth;i++) {
+                    if(i>0)
+                        key.append('/');
+                    key.append(path[i]);
+                }
+                Span span=spans.get(key.toString());
+                if(span!=null) {
+                    // An empty element has no content to replace
+                    if(empty)
+                        return false;
+                    span.start=gt+1;
+                }
+                if(!empty) {
+                    open[depth]=span;
+                    depth++;
+                }
+                pos=gt+1;
+            }
+            if(pos<0)
+                return false;
+        }
+        return true;
+    }
+
+    private static int skipPast(String s,int from,String end) {
+        int i=s.indexOf(end,from);
+        return i<0?-1:i+end.length();
+    }
+
+    /**
+     * Skips a declaration such as DOCTYPE, including an internal subset
+     */
+    private static int skipDeclaration(String s,int from) {
+        int n=s.length();
+        int brackets=0;
+        char quote=0;
+        for(int i=from;i<n;i++) {
+            char c=s.charAt(i);
+            if(quote!=0) {
+                if(c==quote)
+                    quote=0;
+            } else if(c=='"'||c=='\'')
+                quote=c;
+            else if(c=='[')
+                brackets++;
+            else if(c==']')
+                brackets--;
+            else if(c=='>'&&brackets==0)
+                return i+1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the '>' closing the tag, skipping quoted
+     * attribute values
+     */
+    private static int skipTag(String s,int from) {
+        int n=s.length();
+        char quote=0;
+        for(int i=from;i<n;i++) {
+            char c=s.charAt(i);
+            if(quote!=0) {
+                if(c==quote)
+                    quote=0;
+            } else if(c=='"'||c=='\'')
+                quote=c;
+            else if(c=='>')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces character and predefined entity references. Returns
+     * null if the text contains markup or other entity references.
+     */
+    private static String unescape(String raw) {
+        if(raw.indexOf('<')>=0)
+            return null;
+        if(raw.indexOf('&')<0)
+            return raw;
+        StringBuilder buf=new StringBuilder(raw.length());
+        int n=raw.length();
+        for(int i=0;i<n;i++) {
+            char c=raw.charAt(i);
+            if(c=='&') {
+                int semi=raw.indexOf(';',i);
+                if(semi<0)
+                    return null;
+                String ref=raw.substring(i+1,semi);
+                if(ref.equals("lt"))
+                    buf.append('<');
+                else if(ref.equals("gt"))
+                    buf.append('>');
+                else if(ref.equals("amp"))
+                    buf.append('&');
+                else if(ref.equals("quot"))
+                    buf.append('"');
+                else if(ref.equals("apos"))
+                    buf.append('\'');
+                else if(ref.startsWith("#")) {
+                    try {
+                        int cp=ref.startsWith("#x")?Integer.parseInt(ref.substring(2),16):
+                            Integer.parseInt(ref.substring(1));
+                        buf.appendCodePoint(cp);
+                    } catch (Exception e) {
+                        return null;
+                    }
+                } else
+                    return null;
+                i=semi;
+            } else
+                buf.append(c);
+        }
+        return buf.toString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder buf=new StringBuilder(text.length());
+        int n=text.length();
+        for(int i=0;i<n;i++) {
+            char c=text.charAt(i);
+            if(c=='&')
+                buf.append("&amp;");
+            else if(c=='<')
+                buf.append("&lt;");
+            else if(c=='>')
+                buf.append("&gt;");
+            else
+                buf.append(c);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing and counters for --stats. Collection is off by default, and
+ * every place that counts checks Stats.enabled first, so the cost is
+ * one field read when it is off.
+ *
+ * A thread runs one phase at a time, and starting a phase ends the
+ * previous one. Phases record the wall time and the CPU time of the
+ * process while they run, so the CPU time includes the worker threads
+ * of the phase. Phases running at the same time on different threads
+ * (root POMs generated in parallel) are added together.
+ *
+ * Counters:
+ * <ul>
+ *   <li>files.parsed, bytes.read: XML files parsed, with their sizes</li>
+ *   <li>files.read: files read as bytes, e.g. to splice or compare them</li>
+ *   <li>files.written, bytes.written</li>
+ *   <li>resolve.calls, lookupProperty.calls</li>
+ *   <li>resolvedProperty.hits/misses, effectiveProperties.hits/misses: the
+ *   property caches of POM</li>
+ * </ul>
+ * and the number of evaluations of each path expression, named after
+ * the XML.xp_* field holding it.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class Stats {
+
+    /**
+     * If false, nothing is collected
+     */
+    public static boolean enabled=false;
+
+    private static final Map<String,LongAdder> counters=new ConcurrentHashMap<String,LongAdder>();
+    /**
+     * ElementPath or XPathExpression -> evaluations
+     */
+    private static final Map<Object,LongAdder> paths=new ConcurrentHashMap<Object,LongAdder>();
+    /**
+     * Phase name -> {runs, wall ns, cpu ns}, in the order phases first ran
+     */
+    private static final Map<String,long[]> phases=new LinkedHashMap<String,long[]>();
+
+    /**
+     * The phase running on each thread: {name, start wall ns, start cpu ns}
+     */
+    private static final ThreadLocal<Object[]> current=new ThreadLocal<Object[]>();
+
+    /**
+     * Starts a phase on the calling thread, ending the phase running
+     * on it
+     */
+    public static void phase(String name) {
+        if(!enabled)
+            return;
+        endPhase();
+        current.set(new Object[] {name,System.nanoTime(),cpuTime()});
+    }
+
+    /**
+     * Ends the phase running on the calling thread, and adds its times
+     * to the totals of the phase
+     */
+    public static void endPhase() {
+        Object[] p=current.get();
+        if(p==null)
+            return;
+        current.remove();
+        long w=System.nanoTime()-(Long)p[1];
+        long c=cpuTime()-(Long)p[2];
+        synchronized(phases) {
+            long[] t=phases.get((String)p[0]);
+            if(t==null) {
+                t=new long[3];
+                phases.put((String)p[0],t);
+            }
+            t[0]++;
+            t[1]+=w;
+            t[2]+=c;
+        }
+    }
+
+    /**
+     * Returns the CPU time used by the process, or by the calling
+     * thread if the process CPU time is not available
+     */
+    private static long cpuTime() {
+        OperatingSystemMXBean os=ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+        ThreadMXBean t=ManagementFactory.getThreadMXBean();
+        return t.isCurrentThreadCpuTimeSupported()?t.getCurrentThreadCpuTime():0;
+    }
+
+    public static void count(String name) {
+        add(name,1);
+    }
+
+    public static void add(String name,long n) {
+        LongAdder a=counters.get(name);
+        if(a==null) {
+            counters.putIfAbsent(name,new LongAdder());
+            a=counters.get(name);
+        }
+        a.add(n);
+    }
+
+    /**
+     * Counts an evaluation of an ElementPath or XPathExpression
+     */
+    public static void path(Object p) {
+        LongAdder a=paths.get(p);
+        if(a==null) {
+            paths.putIfAbsent(p,new LongAdder());
+            a=paths.get(p);
+        }
+        a.increment();
+    }
+
+    /**
+     * Counts a parsed file
+     */
+    public static void parsed(File f) {
+        count("files.parsed");
+        add("bytes.read",f.length());
+    }
+
+    /**
+     * Counts a file read as bytes
+     */
+    public static void read(long bytes) {
+        count("files.read");
+        add("bytes.read",bytes);
+    }
+
+    public static void written(long bytes) {
+        count("files.written");
+        add("bytes.written",bytes);
+    }
+
+    /**
+     * Drops everything collected so far
+     */
+    public static void reset() {
+        counters.clear();
+        paths.clear();
+        synchronized(phases) {
+            phases.clear();
+        }
+    }
+
+    /**
+     * Returns the evaluations by the names of the path expressions:
+     * the names of the XML.xp_* fields, or the paths themselves.
+     * XPath expressions are counted together as "xpath".
+     */
+    private static Map<String,Long> getPathCounts() {
+        Map<Object,String> names=new IdentityHashMap<Object,String>();
+        for(Field f:XML.class.getFields()) {
+            if(Modifier.isStatic(f.getModifiers())&&f.getName().startsWith("xp_")) {
+                try {
+                    names.put(f.get(null),f.getName());
+                } catch (IllegalAccessException e) {
+                    // Public fields
+                }
+            }
+        }
+        Map<String,Long> map=new TreeMap<String,Long>();
+        for(Map.Entry<Object,LongAdder> entry:paths.entrySet()) {
+            String name=names.get(entry.getKey());
+            if(name==null)
+                name=entry.getKey() instanceof ElementPath?entry.getKey().toString():"xpath";
+            Long n=map.get(name);
+            map.put(name,(n==null?0:n)+entry.getValue().sum());
+        }
+        return map;
+    }
+
+    /**
+     * Prints the collected statistics as plain text, or as JSON
+     */
+    public static void print(PrintStream out,boolean json) {
+        Map<String,long[]> phaseCopy;
+        synchronized(phases) {
+            phaseCopy=new LinkedHashMap<String,long[]>(phases);
+        }
+        Map<String,Long> counterCopy=new TreeMap<String,Long>();
+        for(Map.Entry<String,LongAdder> entry:counters.entrySet())
+            counterCopy.put(entry.getKey(),entry.getValue().sum());
+        Map<String,Long> pathCopy=getPathCounts();
+        if(json)
+            printJSON(out,phaseCopy,counterCopy,pathCopy);
+        else {
+            out.println("Phase                     runs     wall ms      cpu ms");
+            for(Map.Entry<String,long[]> entry:phaseCopy.entrySet()) {
+                long[] t=entry.getValue();
+                out.println(String.format("%-20s %9d %11.1f %11.1f",entry.getKey(),t[0],
+                                          t[1]/1e6,t[2]/1e6));
+            }
+            out.println("Counters");
+            for(Map.Entry<String,Long> entry:counterCopy.entrySet())
+                out.println(String.format("  %-30s %12d",entry.getKey(),entry.getValue()));
+            out.println("Path evaluations");
+            for(Map.Entry<String,Long> entry:pathCopy.entrySet())
+                out.println(String.format("  %-30s %12d",entry.getKey(),entry.getValue()));
+        }
+        out.flush();
+    }
+
+    private static void printJSON(PrintStream out,Map<String,long[]> phaseMap,
+                                  Map<String,Long> counterMap,Map<String,Long> pathMap) {
+        StringBuilder buf=new StringBuilder("{\n  \"phases\": [");
+        List<String> items=new ArrayList<String>();
+        for(Map.Entry<String,long[]> entry:phaseMap.entrySet()) {
+            long[] t=entry.getValue();
+            items.add("\n    {\"name\": "+quote(entry.getKey())+", \"runs\": "+t[0]+
+                      ", \"wallNanos\": "+t[1]+", \"cpuNanos\": "+t[2]+"}");
+        }
+        join(buf,items);
+        buf.append("],\n  \"counters\": {");
+        appendMap(buf,counterMap);
+        buf.append("},\n  \"pathEvaluations\": {");
+        appendMap(buf,pathMap);
+        buf.append("}\n}");
+        out.println(buf);
+    }
+
+    private static void appendMap(StringBuilder buf,Map<String,Long> map) {
+        List<String> items=new ArrayList<String>();
+        for(Map.Entry<String,Long> entry:map.entrySet())
+            items.add("\n    "+quote(entry.getKey())+": "+entry.getValue());
+        join(buf,items);
+    }
+
+    private static void join(StringBuilder buf,List<String> items) {
+        for(int i=0;i<items.size();i++) {
+            if(i>0)
+                buf.append(',');
+            buf.append(items.get(i));
+        }
+        if(!items.isEmpty())
+            buf.append("\n  ");
+    }
+
+    private static String quote(String s) {
+        StringBuilder buf=new StringBuilder("\"");
+        for(int i=0;i<s.length();i++) {
+            char c=s.charAt(i);
+            if(c=='"'||c=='\\')
+                buf.append('\\').append(c);
+            else if(c<0x20)
+                buf.append(String.format("\\u%04x",(int)c));
+            else
+                buf.append(c);
+        }
+        return buf.append('"').toString();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Applies a set of version changes to a POM tree in one pass. The
+ * changes are collected first, then every POM is visited once, and
+ * its version, its dependency and dependency management versions,
+ * and its parent version are set from the change set.
+ *
+ * POMs are split between worker threads. A worker only modifies the
+ * documents of the POMs it owns, so no locking is needed. Cached
+ * values of the modified POMs are invalidated after all workers are
+ * done.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class VersionUpdate {
+
+    /**
+     * groupId:artifactId -> version
+     */
+    private final Map<String,String> versions=new LinkedHashMap<String,String>();
+    private final List<String> conflicts=new ArrayList<String>();
+
+    /**
+     * Adds a version change. If the artifact is already in the change
+     * set with a different version, a conflict is recorded, and the
+     * last version is used.
+     */
+    public void add(Artifact a) {
+        String id=a.groupId+":"+a.artifactId;
+        String old=versions.put(id,a.version);
+        if(old!=null&&!old.equals(a.version))
+            conflicts.add("Conflicting versions for "+id+": "+old+" and "+a.version+
+                          ", using "+a.version);
+    }
+
+    public List<String> getConflicts() {
+        return conflicts;
+    }
+
+    public int size() {
+        return versions.size();
+    }
+
+    public boolean isEmpty() {
+        return versions.isEmpty();
+    }
+
+    /**
+     * Applies the changes to the POMs using nThreads workers. Messages
+     * about references that cannot be updated are printed in the
+     * order of the POMs. Returns true if a POM is modified.
+     */
+    public boolean apply(Collection<POM> poms,int nThreads) throws Exception {
+        Object event=Events.beginVersionUpdate();
+        final POM[] arr=poms.toArray(new POM[poms.size()]);
+        // Resolve the ids before the workers start, so workers don't
+        // need other POMs
+        for(POM p:arr)
+            p.getId();
+        final boolean[] changed=new boolean[arr.length];
+        // Workers set only their own elements
+        final List<List<String>> messages=
+            new ArrayList<List<String>>(Collections.<List<String>>nCopies(arr.length,null));
+
+        Workers.run(arr.length,nThreads,new Workers.Range() {
+                public void run(int from,int to) {
+                    apply(arr,from,to,changed,messages);
+                }
+            });
+
+        int nChanged=0;
+        for(int i=0;i<arr.length;i++) {
+            if(messages.get(i)!=null)
+                for(String msg:messages.get(i))
+                    System.out.println(msg);
+            if(changed[i]) {
+                arr[i].invalidate();
+                nChanged++;
+            }
+        }
+        Events.endVersionUpdate(event,versions.size(),arr.length,nChanged);
+        return nChanged>0;
+    }
+
+    private void apply(POM[] poms,int from,int to,boolean[] changed,List<List<String>> messages) {
+        for(int i=from;i<to;i++) {
+            List<String> msgs=new ArrayList<String>(0);
+            changed[i]=apply(poms[i],msgs);
+            if(!msgs.isEmpty())
+                messages.set(i,msgs);
+        }
+    }
+
+    private boolean apply(POM pom,List<String> messages) {
+        boolean changed=false;
+        String v=versions.get(pom.getId());
+        if(v!=null&&pom.writeVersion(v))
+            changed=true;
+        if(apply(pom,pom.getDependencies(),messages))
+            changed=true;
+        if(apply(pom,pom.getDependencyManagement(),messages))
+            changed=true;
+        String parentGroupId=pom.getParentGroupId();
+        String parentArtifactId=pom.getParentArtifactId();
+        if(parentGroupId!=null&&parentArtifactId!=null) {
+            v=versions.get(parentGroupId+":"+parentArtifactId);
+            if(v!=null&&pom.writeParentVersion(v))
+                changed=true;
+        }
+        return changed;
+    }
+
+    private boolean apply(POM pom,NodeList dependencies,List<String> messages) {
+        boolean changed=false;
+        int n=dependencies.getLength();
+        for(int i=0;i<n;i++) {
+            Element el=(Element)dependencies.item(i);
+            if(el.getTagName().equals("dependency")) {
+                String v=versions.get(XML.getElementText(el,XML.xp_rel_groupId)+":"+
+                                      XML.getElementText(el,XML.xp_rel_artifactId));
+                if(v!=null&&setDependencyVersion(pom,el,v,messages))
+                    changed=true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Sets the version of a dependency element. If the dependency has
+     * no version, adds a message to messages. Returns true if the
+     * version is changed.
+     */
+    public static boolean setDependencyVersion(POM pom,Element dependency,
+                                               String version,List<String> messages) {
+        Element depVersionEl=XML.getElement(dependency,XML.xp_rel_version);
+        if(depVersionEl!=null) {
+            String depVersion=depVersionEl.getTextContent();
+            if(!depVersion.equals(version)) {
+                pom.setText(depVersionEl,version);
+                return true;
+            }
+        } else
+            messages.add("Cannot set version in "+pom.getGroupId()+":"+pom.getArtifactId());
+        return false;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Splits the indexes of n items into contiguous ranges, and runs a
+ * task for each range on its own thread.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+class Workers {
+
+    interface Range {
+        /**
+         * Process items from (inclusive) to to (exclusive)
+         */
+        void run(int from,int to) throws Exception;
+    }
+
+    /**
+     * Runs task over 0..n using at most nThreads threads. If one
+     * thread is enough, the task runs on the calling thread. The
+     * first exception thrown by a task is rethrown after all tasks
+     * are done.
+     */
+    static void run(int n,int nThreads,final Range task) throws Exception {
+        int nChunks=Math.max(1,Math.min(nThreads,n));
+        if(nChunks==1) {
+            task.run(0,n);
+            return;
+        }
+        ExecutorService executor=Executors.newFixedThreadPool(nChunks);
+        try {
+            List<Future<Object>> futures=new ArrayList<Future<Object>>(nChunks);
+            int chunkSize=(n+nChunks-1)/nChunks;
+            for(int start=0;start<n;start+=chunkSize) {
+                final int from=start;
+                final int to=Math.min(n,start+chunkSize);
+                futures.add(executor.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            task.run(from,to);
+                            return null;
+                        }
+                    }));
+            }
+            Exception error=null;
+            for(Future<Object> f:futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if(error==null) {
+                        Throwable cause=e.getCause();
+                        error=cause instanceof Exception?(Exception)cause:e;
+                    }
+                }
+            }
+            if(error!=null)
+                throw error;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -19,11 +19,28 @@
 package com.redhat.tools.pomutils;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.AtomicMoveNotSupportedException;
+
+import java.util.List;
+import java.util.Arrays;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
 
+import javax.xml.stream.XMLInputFactory;
+
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
 import org.w3c.dom.Document;
@@ -35,6 +52,9 @@ import org.w3c.dom.CharacterData;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import javax.xml.namespace.QName;
 
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.Transformer;
@@ -49,62 +69,190 @@ import javax.xml.transform.stream.StreamResult;
  */
 public class XML {
 
+    private static class ElementList implements NodeList {
+        private final List<Element> list;
+
+        public ElementList(List<Element> list) {
+            this.list=list;
+        }
+
+        public int getLength() {
+            return list.size();
+        }
+
+        public Node item(int index) {
+            return index>=0&&index<list.size()?list.get(index):null;
+        }
+    }
+
     public static final DocumentBuilder docBuilder;
+    public static final DocumentBuilderFactory dbf;
+    public static final TransformerFactory tf;
+    /**
+     * XPath factory for user supplied queries. The fixed paths below
+     * are evaluated by walking the DOM, see ElementPath.
+     */
     public static final XPathFactory xpf;
-    public static final XPathExpression xp_modules;
-    public static final XPathExpression xp_module;
-    public static final XPathExpression xp_groupId;
-    public static final XPathExpression xp_artifactId;
-    public static final XPathExpression xp_version;
-    public static final XPathExpression xp_property;
-    public static final XPathExpression xp_parentGroupId;
-    public static final XPathExpression xp_parentArtifactId;
-    public static final XPathExpression xp_parentVersion;
-    public static final XPathExpression xp_dependency;
-    public static final XPathExpression xp_depmgmt;
-    public static final XPathExpression xp_rel_artifactId;
-    public static final XPathExpression xp_rel_groupId;
-    public static final XPathExpression xp_rel_version;
-
-    public static final XPathExpression xp_mf_modulemap;
-    public static final XPathExpression xp_mf_modulename;
-    public static final XPathExpression xp_mf_modulepom;
-    public static final XPathExpression xp_mf_buildset;
+    public static final ElementPath xp_modules;
+    public static final ElementPath xp_module;
+    public static final ElementPath xp_groupId;
+    public static final ElementPath xp_artifactId;
+    public static final ElementPath xp_version;
+    public static final ElementPath xp_properties;
+    public static final ElementPath xp_property;
+    public static final ElementPath xp_parent;
+    public static final ElementPath xp_parentGroupId;
+    public static final ElementPath xp_parentArtifactId;
+    public static final ElementPath xp_parentVersion;
+    public static final ElementPath xp_dependency;
+    public static final ElementPath xp_depmgmt;
+    public static final ElementPath xp_rel_artifactId;
+    public static final ElementPath xp_rel_groupId;
+    public static final ElementPath xp_rel_version;
+
+    /**
+     * DocumentBuilder is not thread safe, so every thread gets its
+     * own. The main thread uses docBuilder.
+     */
+    private static final ThreadLocal<DocumentBuilder> threadDocBuilder=
+        new ThreadLocal<DocumentBuilder>() {
+        protected DocumentBuilder initialValue() {
+            return newDocBuilder();
+        }
+    };
+
+    /**
+     * StAX factories are not guaranteed to be thread safe either
+     */
+    private static final ThreadLocal<XMLInputFactory> threadStaxFactory=
+        new ThreadLocal<XMLInputFactory>() {
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory f=XMLInputFactory.newInstance();
+            f.setProperty(XMLInputFactory.IS_COALESCING,Boolean.TRUE);
+            return f;
+        }
+    };
+
+    private static final int BUFFER_SIZE=64*1024;
+
+    /**
+     * Transformers are reused by the thread that created them
+     */
+    private static final ThreadLocal<Transformer> threadTransformer=
+        new ThreadLocal<Transformer>() {
+        protected Transformer initialValue() {
+            try {
+                Transformer transformer;
+                synchronized(tf) {
+                    transformer=tf.newTransformer();
+                }
+                setOutputProperties(transformer);
+                return transformer;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
 
     static {
         try {
-            docBuilder=DocumentBuilderFactory.
-                newInstance().
-                newDocumentBuilder();
+            tf=TransformerFactory.newInstance();
+            dbf=DocumentBuilderFactory.newInstance();
+            docBuilder=dbf.newDocumentBuilder();
+            threadDocBuilder.set(docBuilder);
             xpf=XPathFactory.newInstance();
 
-            xp_modules=xpf.newXPath().compile("/project/modules");
-            xp_module=xpf.newXPath().compile("/project/modules/module");
-            xp_groupId=xpf.newXPath().compile("/project/groupId");
-            xp_artifactId=xpf.newXPath().compile("/project/artifactId");
-            xp_parentGroupId=xpf.newXPath().compile("/project/parent/groupId");
-            xp_parentArtifactId=xpf.newXPath().compile("/project/parent/artifactId");
-            xp_parentVersion=xpf.newXPath().compile("/project/parent/version");
-            xp_version=xpf.newXPath().compile("/project/version");
-            xp_property=xpf.newXPath().compile("/project/properties/*");
-            xp_dependency=xpf.newXPath().compile("/project/dependencies/*");
-            xp_depmgmt=xpf.newXPath().compile("/project/dependencyManagement/*");
-            xp_rel_artifactId=xpf.newXPath().compile("./artifactId");
-            xp_rel_groupId=xpf.newXPath().compile("./groupId");
-            xp_rel_version=xpf.newXPath().compile("./version");
-
-            xp_mf_modulemap=xpf.newXPath().compile("/manifest/modulemap/*");
-            xp_mf_modulename=xpf.newXPath().compile("./name");
-            xp_mf_modulepom=xpf.newXPath().compile("./pom");
-            xp_mf_buildset=xpf.newXPath().compile("/manifest/buildset/*");
+            xp_modules=ElementPath.compile("/project/modules");
+            xp_module=ElementPath.compile("/project/modules/module");
+            xp_groupId=ElementPath.compile("/project/groupId");
+            xp_artifactId=ElementPath.compile("/project/artifactId");
+            xp_parent=ElementPath.compile("/project/parent");
+            xp_parentGroupId=ElementPath.compile("/project/parent/groupId");
+            xp_parentArtifactId=ElementPath.compile("/project/parent/artifactId");
+            xp_parentVersion=ElementPath.compile("/project/parent/version");
+            xp_version=ElementPath.compile("/project/version");
+            xp_properties=ElementPath.compile("/project/properties");
+            xp_property=ElementPath.compile("/project/properties/*");
+            xp_dependency=ElementPath.compile("/project/dependencies/*");
+            xp_depmgmt=ElementPath.compile("/project/dependencyManagement/dependencies/*");
+            xp_rel_artifactId=ElementPath.compile("./artifactId");
+            xp_rel_groupId=ElementPath.compile("./groupId");
+            xp_rel_version=ElementPath.compile("./version");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static DocumentBuilder newDocBuilder() {
+        try {
+            synchronized(dbf) {
+                return dbf.newDocumentBuilder();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Returns the DocumentBuilder for the calling thread
+     */
+    public static DocumentBuilder getDocBuilder() {
+        return threadDocBuilder.get();
+    }
+
+    /**
+     * Returns the StAX input factory for the calling thread
+     */
+    public static XMLInputFactory getStaxFactory() {
+        return threadStaxFactory.get();
+    }
+
+    /**
+     * Evaluates an XPath expression. XPathExpression objects are not
+     * thread safe, so an expression is evaluated by one thread at a
+     * time.
+     */
+    public static Object evaluate(Object context,XPathExpression xp,QName type) 
+        throws XPathExpressionException {
+        if(Stats.enabled)
+            Stats.path(xp);
+        synchronized(xp) {
+            return xp.evaluate(context,type);
+        }
+    }
+
+    public static Element getElement(Object context,ElementPath p) {
+        return p.getElement((Node)context);
+    }
+
+    public static String getElementText(Object context,ElementPath p) {
+        Element e=p.getElement((Node)context);
+        if(e==null)
+            return null;
+        else
+            return e.getTextContent();
+    }
+
+    public static NodeList getElements(Object context,ElementPath p) {
+        return new ElementList(p.getElements((Node)context));
+    }
+
+    public static NodeList toNodeList(List<Element> list) {
+        return new ElementList(list);
+    }
+
+    public static String[] getElementTexts(Object context,ElementPath p) {
+        List<Element> l=p.getElements((Node)context);
+        int n=l.size();
+        String[] ret=new String[n];
+        for(int i=0;i<n;i++)
+            ret[i]=l.get(i).getTextContent();
+        return ret;
+    }
+
     public static Element getElement(Object context,XPathExpression xp) {
         try {
-            return (Element)xp.evaluate(context,XPathConstants.NODE);
+            return (Element)evaluate(context,xp,XPathConstants.NODE);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -112,7 +260,7 @@ public class XML {
 
     public static String getElementText(Object context,XPathExpression xp) {
         try {
-            Element e=(Element)xp.evaluate(context,XPathConstants.NODE);
+            Element e=(Element)evaluate(context,xp,XPathConstants.NODE);
             if(e==null)
                 return null;
             else
@@ -124,7 +272,7 @@ public class XML {
 
     public static NodeList getElements(Object context,XPathExpression xp) {
         try {
-            return (NodeList)xp.evaluate(context,XPathConstants.NODESET);
+            return (NodeList)evaluate(context,xp,XPathConstants.NODESET);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -144,15 +292,139 @@ public class XML {
         }
     }
 
+    /**
+     * Returns the Transformer for the calling thread. Transformers are
+     * not thread safe, but can be reused.
+     */
+    public static Transformer getTransformer() {
+        return threadTransformer.get();
+    }
+
+    public static void write(Document doc,OutputStream ostream) throws Exception {
+        getTransformer().transform(new DOMSource(doc),
+                                   new StreamResult(ostream));
+    }
+
+    /**
+     * Serializes the document
+     */
+    public static byte[] toBytes(Document doc) throws Exception {
+        ByteArrayOutputStream ostream=new ByteArrayOutputStream(BUFFER_SIZE);
+        write(doc,ostream);
+        return ostream.toByteArray();
+    }
+
+    /**
+     * Returns true if file exists and has exactly the given
+     * contents. The file is read only if its length matches.
+     */
+    public static boolean hasContent(File file,byte[] content) throws IOException {
+        if(!file.isFile()||file.length()!=content.length)
+            return false;
+        if(Stats.enabled)
+            Stats.read(content.length);
+        return Arrays.equals(Files.readAllBytes(file.toPath()),content);
+    }
+
+    /**
+     * Writes the document to file. The document is written to a
+     * temporary file first, and then renamed, so file is either the
+     * old or the new version, never a partially written one.
+     */
     public static void write(Document doc,File file) throws Exception {
-        FileOutputStream ostream=new FileOutputStream(file);
-        TransformerFactory tf=TransformerFactory.newInstance();
-        Transformer transformer=tf.newTransformer();
+        commit(writeTemp(doc,file,false),file);
+    }
+
+    /**
+     * Writes the document into a temporary file in the directory of
+     * file, and returns the temporary file. If sync is true, the
+     * temporary file is flushed to the disk. Use commit() to replace
+     * file with it.
+     */
+    public static File writeTemp(Document doc,File file,boolean sync) throws Exception {
+        return writeTemp(doc,null,file,sync);
+    }
+
+    /**
+     * Writes content into a temporary file in the directory of file,
+     * see writeTemp(Document,File,boolean)
+     */
+    public static File writeTemp(byte[] content,File file,boolean sync) throws Exception {
+        return writeTemp(null,content,file,sync);
+    }
+
+    private static File writeTemp(Document doc,byte[] content,File file,boolean sync) throws Exception {
+        File tmp=new File(file.getAbsoluteFile().getParentFile(),
+                          "."+file.getName()+".pomutil.tmp");
+        FileChannel channel=FileChannel.open(tmp.toPath(),
+                                             StandardOpenOption.WRITE,
+                                             StandardOpenOption.CREATE,
+                                             StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            Object event=Events.beginWrite();
+            OutputStream ostream=new BufferedOutputStream(Channels.newOutputStream(channel),BUFFER_SIZE);
+            if(doc!=null)
+                write(doc,ostream);
+            else
+                ostream.write(content);
+            ostream.flush();
+            if(sync)
+                channel.force(true);
+            if(event!=null)
+                Events.endWrite(event,file,channel.size(),sync);
+            if(Stats.enabled)
+                Stats.written(channel.size());
+        } catch (Exception e) {
+            channel.close();
+            tmp.delete();
+            throw e;
+        }
+        channel.close();
+        return tmp;
+    }
+
+    /**
+     * Replaces file with tmp written by writeTemp(). The permissions
+     * of file are kept.
+     */
+    public static void commit(File tmp,File file) throws IOException {
+        Path target=file.toPath();
+        if(Files.exists(target)) {
+            try {
+                Files.setPosixFilePermissions(tmp.toPath(),Files.getPosixFilePermissions(target));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system
+            }
+        }
+        try {
+            Files.move(tmp.toPath(),target,
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(),target,StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Flushes the directory entries of dir to the disk, so renames in
+     * the directory survive a crash. Not all platforms support this,
+     * errors are ignored.
+     */
+    public static void syncDirectory(File dir) {
+        try {
+            FileChannel channel=FileChannel.open(dir.toPath(),StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    private static void setOutputProperties(Transformer transformer) {
         transformer.setOutputProperty(OutputKeys.METHOD,"xml");
         transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,"no");
-        transformer.transform(new DOMSource(doc),
-                              new StreamResult(ostream));
-        ostream.close();
     }
 
 }
@@ -21,9 +21,18 @@ package com.redhat.tools.pomutils;
 import java.security.MessageDigest;
 
 import java.io.File;
+import java.io.IOException;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
@@ -63,6 +72,17 @@ import org.w3c.dom.Attr;
  * hash (i.e. if the fragment has not been modified manually), then
  * the contents of the fragment is replaced with "blah.xml").
  *
+ * Fragment files are parsed and hashed once, and reused for all the
+ * files processed by the same XmlFrag until they change on the disk.
+ * If a FragmentIndex is given, the hashes of the fragment files are
+ * kept between runs, and a fragment file is parsed only if its content
+ * is inserted into a file.
+ *
+ * Several files can be processed in parallel with processFiles(). The
+ * fragments are shared by the threads: a fragment is loaded and
+ * imported into a document by one thread at a time, as DOM is not
+ * thread safe even for reading.
+ *
  * @author Burak Serdar (bserdar@redhat.com)
  */
 public class XmlFrag {
@@ -94,25 +114,100 @@ public class XmlFrag {
         }
     }
 
+    /**
+     * The outcome of processing a file
+     */
+    public static class Result {
+        boolean modified;
+        int handEdited;
+        final List<String> messages=new ArrayList<String>();
+
+        /**
+         * Returns true if fragments were inserted or replaced
+         */
+        public boolean isModified() {
+            return modified;
+        }
+
+        /**
+         * Returns the number of fragments that were modified in the
+         * file, and were not replaced
+         */
+        public int getHandEdited() {
+            return handEdited;
+        }
+
+        /**
+         * Returns the messages to print for the file
+         */
+        public List<String> getMessages() {
+            return messages;
+        }
+    }
+
+    /**
+     * A fragment file. The content is parsed when first needed.
+     */
+    private static class Fragment {
+        final File file;
+        final long size;
+        final long lastModified;
+        String hash;
+        DocumentFragment content;
+
+        public Fragment(File file) {
+            this.file=file;
+            this.size=file.length();
+            this.lastModified=file.lastModified();
+        }
+    }
+
     private final File fragDir;
+    /**
+     * Fragments by canonical path
+     */
+    private final Map<String,Fragment> fragmentCache=new HashMap<String,Fragment>();
+    private FragmentIndex index;
 
     public XmlFrag(File fragDir) {
         this.fragDir=fragDir;
     }
 
+    /**
+     * Sets the index used to look up and record the hashes of the
+     * fragment files. The caller loads and saves the index.
+     */
+    public void setIndex(FragmentIndex index) {
+        this.index=index;
+    }
+
+    /**
+     * Processes the fragments of the document, and prints the
+     * warnings. Returns true if the document is modified.
+     */
     public boolean processXML(File file,Document doc,boolean forceRefresh) throws Exception {
+        Result result=process(file,doc,forceRefresh);
+        for(String msg:result.messages)
+            System.out.println(msg);
+        return result.modified;
+    }
+
+    /**
+     * Processes the fragments of the document
+     */
+    public Result process(File file,Document doc,boolean forceRefresh) throws Exception {
+        Result ret=new Result();
         Element root=doc.getDocumentElement();
         List<FragmentDirective> fragments=new ArrayList<FragmentDirective>();
         scanComments(root,fragments);
 
         MessageDigest digest=MessageDigest.getInstance("SHA-1");
 
-        boolean modified=false;
         for(FragmentDirective frag:fragments) {
-            DocumentFragment fragmentDoc=loadFragment(frag.fileName);
-            digest.reset();
-            digestFragment(digest,fragmentDoc);
-            String hash=tostr(digest.digest());
+            Object event=Events.beginFragment();
+            String result="unchanged";
+            Fragment fragment=getFragment(frag.fileName);
+            String hash=getHash(fragment,digest);
             if(frag instanceof FragmentContent) {
                 FragmentContent fc=(FragmentContent)frag;
                 // Check if the fragment needs to be replaced
@@ -135,33 +230,111 @@ public class XmlFrag {
                             i++;
                         }
                         // Insert the fragment after the first comment node
-                        importFragment(fc.nodes.get(n-1),fragmentDoc,doc);
+                        importFragment(fc.nodes.get(n-1),fragment,digest,doc);
                         // Modify the comment node text to reflect the new hash
                         ((Comment)fc.nodes.get(0)).setData("Fragment Begin: "+fc.fileName+" "+hash);
-                        modified=true;
+                        ret.modified=true;
+                        result="replaced";
                     } 
-                } else
-                    System.out.println(file.toString()+": Fragment for "+frag.fileName+
-                                       " was modified in file, cannot replace (fragment file hash:"+hash+" hash in file:"+fragmentHash+" has in comment:"+fc.hash+")");
+                } else {
+                    ret.messages.add(file.toString()+": Fragment for "+frag.fileName+
+                                     " was modified in file, cannot replace (fragment file hash:"+hash+" hash in file:"+fragmentHash+" has in comment:"+fc.hash+")");
+                    ret.handEdited++;
+                    result="modified";
+                }
             } else {
                 // This will be the fragment end comment node
                 frag.node.setData("Fragment End: "+frag.fileName);
                 Comment c=doc.createComment("Fragment Begin: "+frag.fileName+" "+hash);
                 frag.node.getParentNode().insertBefore(c,frag.node);
                 // Import the fragment here
-                importFragment(frag.node,fragmentDoc,doc);
-                modified=true;
+                importFragment(frag.node,fragment,digest,doc);
+                ret.modified=true;
+                result="inserted";
             }
+            Events.endFragment(event,file,frag.fileName,result);
         }
-        return modified;
+        return ret;
     }
 
-    private void importFragment(Node commentNode,DocumentFragment fragmentDoc,Document doc) {
-        Node child=fragmentDoc.getFirstChild();
-        while(child!=null) {
-            Node importedNode=doc.importNode(child,true);
-            commentNode.getParentNode().insertBefore(importedNode,commentNode);
-            child=child.getNextSibling();
+    /**
+     * Parses the file, processes its fragments, and writes it back if
+     * it is modified. Uses the parser and the transformer of the
+     * calling thread, so files can be processed on several threads.
+     */
+    public Result processFile(File file,boolean forceRefresh) throws Exception {
+        Stats.phase("parse");
+        Document doc=XML.getDocBuilder().parse(file);
+        if(Stats.enabled)
+            Stats.parsed(file);
+        Stats.phase("process");
+        Result result=process(file,doc,forceRefresh);
+        if(result.modified) {
+            Stats.phase("write");
+            XML.write(doc,file);
+            result.messages.add(file+": updated");
+        } else
+            result.messages.add(file+": no changes");
+        Stats.endPhase();
+        return result;
+    }
+
+    /**
+     * Processes files using at most nThreads threads, and prints the
+     * messages for each file in the order of the files. Returns the
+     * number of files with fragments modified in the file. If a file
+     * cannot be processed, the files after it are not reported, and
+     * the exception is rethrown.
+     */
+    public int processFiles(List<File> files,final boolean forceRefresh,int nThreads) throws Exception {
+        int handEdited=0;
+        int n=Math.max(1,Math.min(nThreads,files.size()));
+        if(n==1) {
+            for(File file:files)
+                handEdited+=print(processFile(file,forceRefresh));
+            return handEdited;
+        }
+        ExecutorService executor=Executors.newFixedThreadPool(n);
+        try {
+            List<Future<Result>> futures=new ArrayList<Future<Result>>(files.size());
+            for(final File file:files)
+                futures.add(executor.submit(new Callable<Result>() {
+                        public Result call() throws Exception {
+                            return processFile(file,forceRefresh);
+                        }
+                    }));
+            for(Future<Result> f:futures) {
+                try {
+                    handEdited+=print(f.get());
+                } catch (ExecutionException e) {
+                    Throwable cause=e.getCause();
+                    throw cause instanceof Exception?(Exception)cause:e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return handEdited;
+    }
+
+    private static int print(Result result) {
+        for(String msg:result.messages)
+            System.out.println(msg);
+        return result.handEdited>0?1:0;
+    }
+
+    /**
+     * Imports the content of the fragment into doc before commentNode
+     */
+    private void importFragment(Node commentNode,Fragment fragment,MessageDigest digest,Document doc)
+        throws Exception {
+        synchronized(fragment) {
+            Node child=getContent(fragment,digest).getFirstChild();
+            while(child!=null) {
+                Node importedNode=doc.importNode(child,true);
+                commentNode.getParentNode().insertBefore(importedNode,commentNode);
+                child=child.getNextSibling();
+            }
         }
     }
 
@@ -174,8 +347,61 @@ public class XmlFrag {
         return buf.toString();
     }
 
-    private DocumentFragment loadFragment(String fileName) throws Exception {
-        Document doc=XML.docBuilder.parse(new File(fragDir,fileName));
+    /**
+     * Returns the fragment file, reusing the one seen before if the
+     * file did not change
+     */
+    private Fragment getFragment(String fileName) throws IOException {
+        File file=new File(fragDir,fileName).getCanonicalFile();
+        String path=file.getPath();
+        synchronized(fragmentCache) {
+            Fragment fragment=fragmentCache.get(path);
+            if(fragment==null||fragment.size!=file.length()||fragment.lastModified!=file.lastModified()) {
+                fragment=new Fragment(file);
+                if(index!=null)
+                    fragment.hash=index.getHash(path,fragment.size,fragment.lastModified);
+                fragmentCache.put(path,fragment);
+            }
+            return fragment;
+        }
+    }
+
+    /**
+     * Returns the hash of the fragment, parsing it if the hash is not
+     * known
+     */
+    private String getHash(Fragment fragment,MessageDigest digest) throws Exception {
+        synchronized(fragment) {
+            if(fragment.hash==null)
+                getContent(fragment,digest);
+            return fragment.hash;
+        }
+    }
+
+    /**
+     * Returns the parsed fragment, and computes its hash if it is not
+     * known. The content is only imported into documents, never
+     * modified, so it is shared by all the files using it. The caller
+     * holds the lock of the fragment.
+     */
+    private DocumentFragment getContent(Fragment fragment,MessageDigest digest) throws Exception {
+        if(fragment.content==null) {
+            fragment.content=loadFragment(fragment.file);
+            if(fragment.hash==null) {
+                digest.reset();
+                digestFragment(digest,fragment.content);
+                fragment.hash=tostr(digest.digest());
+                if(index!=null)
+                    index.put(fragment.file.getPath(),fragment.size,fragment.lastModified,fragment.hash);
+            }
+        }
+        return fragment.content;
+    }
+
+    private DocumentFragment loadFragment(File file) throws Exception {
+        Document doc=XML.getDocBuilder().parse(file);
+        if(Stats.enabled)
+            Stats.parsed(file);
         Element root=doc.getDocumentElement();
         if(root.getTagName().equals("fragment")) {
             DocumentFragment fragment=doc.createDocumentFragment();
@@ -187,7 +413,7 @@ public class XmlFrag {
             }
             return fragment;
         } else
-            throw new RuntimeException("Document element 'fragment' is expected in "+fileName);
+            throw new RuntimeException("Document element 'fragment' is expected in "+file);
     }
 
     private void scanComments(Node node,List<FragmentDirective> fragments) throws Exception {
@@ -293,32 +519,61 @@ public class XmlFrag {
     public static void main(String[] args) throws Exception {
         File fragdir=new File(".");
         boolean forceRefresh=false;
+        int nThreads=Runtime.getRuntime().availableProcessors();
+        String stats=null;
+        boolean useIndex=false;
+        String indexFile=null;
         List<String> xmlFiles=new ArrayList<String>();
         for(int i=0;i<args.length;i++) {
             if(args[i].startsWith("-f"))
                 fragdir=new File(args[i].substring(2));
             else if(args[i].equals("-x"))
                 forceRefresh=true;
+            else if(args[i].startsWith("-j"))
+                nThreads=Integer.parseInt(args[i].substring(2));
+            else if(args[i].startsWith("-c")) {
+                useIndex=true;
+                indexFile=args[i].substring(2);
+                if(indexFile.trim().length()==0)
+                    indexFile=null;
+            } else if(args[i].equals("--stats")||args[i].equals("--stats=json"))
+                stats=args[i];
             else
                 xmlFiles.add(args[i]);
         }
         XmlFrag xmlFrag=new XmlFrag(fragdir);
+        FragmentIndex index=null;
+        if(useIndex) {
+            index=new FragmentIndex(indexFile!=null?new File(indexFile):
+                                    new File(fragdir,FragmentIndex.DEFAULT_FILE));
+            index.load();
+            xmlFrag.setIndex(index);
+        }
         if(!xmlFiles.isEmpty()) {
-            for(String file:xmlFiles) {
-                File f=new File(file);
-                Document doc=XML.docBuilder.parse(f);
-                if(xmlFrag.processXML(f,doc,forceRefresh)) {
-                    XML.write(doc,f);
-                    System.out.println(file+": updated");
-                } else {
-                    System.out.println(file+": no changes");
-                }
+            Stats.enabled=stats!=null;
+            List<File> files=new ArrayList<File>(xmlFiles.size());
+            for(String file:xmlFiles)
+                files.add(new File(file));
+            int handEdited=xmlFrag.processFiles(files,forceRefresh,nThreads);
+            if(index!=null)
+                index.save();
+            if(stats!=null)
+                Stats.print(System.err,stats.equals("--stats=json"));
+            if(handEdited>0) {
+                System.out.println(handEdited+" file(s) have fragments modified in the file");
+                System.exit(2);
             }
         } else {
-            System.out.println("XmlFrag [-ffragmentDir] [-x] xmlfiles...\n"+
+            System.out.println("XmlFrag [-ffragmentDir] [-x] [-c[indexFile]] [-j<n>] [--stats[=json]] xmlfiles...\n"+
                                "\n"+
                                " Maintains/replaces XML fragments in XML files.\n\n"+
                                " -x: forces replacement of fragments\n"+
+                               " -c: keeps the hashes of the fragment files in indexFile, so unchanged\n"+
+                               "     fragments are not parsed again in the next run. The default index file\n"+
+                               "     is .xmlfrag/fragments.index under fragmentDir\n"+
+                               " -j: processes the files using n threads (default: number of processors)\n"+
+                               "     The results are printed in the order of the files\n"+
+                               " --stats: prints timing and counters to stderr, as text or JSON\n"+
                                "\n"+
                                "A fragment is an xml file of the form:\n"+
                                "<fragment>\n"+
@@ -332,7 +587,7 @@ public class XmlFrag {
                                "The, the contents of 'filename.xml' will be inserted here along with comments containing a has of the fragment.\n"+
                                "If the fragment file is modified, running XmlFrag will update the\n"+
                                "inserted fragment. If the inserted fragment was manually edited, a warning will be given\n"+
-                               "and won't be updated.\n");
+                               "and won't be updated. Then XmlFrag exits with status 2.\n");
         }
     }
 }
@@ -0,0 +1,194 @@
+/*
+    Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+    This file is part of pomutils.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.redhat.tools.pomutils;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events, the Java 11 version of Events. See
+ * the Java 8 version for how the events are used.
+ *
+ * When no recording is active, or an event type is disabled,
+ * isEnabled() is a constant the JIT compiler folds, and the event
+ * object does not escape, so a begin/end pair costs nothing. The
+ * event values are set only if the event is committed.
+ *
+ * @author Burak Serdar (bserdar@redhat.com)
+ */
+public class Events {
+
+    @Name("com.redhat.tools.pomutils.Parse")
+    @Label("POM Parse")
+    @Category("pomutils")
+    @Description("A POM file parsed")
+    static class ParseEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+        @Label("DOM")
+        @Description("True if a DOM is built, false if the file is read by the streaming parser")
+        boolean dom;
+    }
+
+    @Name("com.redhat.tools.pomutils.BuildSet")
+    @Label("Build Set")
+    @Category("pomutils")
+    @Description("The projects to build computed for a root POM")
+    static class BuildSetEvent extends Event {
+        @Label("Artifacts")
+        int artifacts;
+        @Label("Projects")
+        int projects;
+    }
+
+    @Name("com.redhat.tools.pomutils.VersionUpdate")
+    @Label("Version Update")
+    @Category("pomutils")
+    @Description("A batch of version edits applied to the POMs")
+    static class VersionUpdateEvent extends Event {
+        @Label("Artifacts")
+        int artifacts;
+        @Label("POMs")
+        int poms;
+        @Label("Changed POMs")
+        int changed;
+    }
+
+    @Name("com.redhat.tools.pomutils.Write")
+    @Label("XML Write")
+    @Category("pomutils")
+    @Description("An XML file written")
+    static class WriteEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+        @Label("Sync")
+        boolean sync;
+    }
+
+    @Name("com.redhat.tools.pomutils.Fragment")
+    @Label("Fragment")
+    @Category("pomutils")
+    @Description("An XmlFrag fragment directive processed")
+    static class FragmentEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Fragment")
+        String fragment;
+        @Label("Result")
+        String result;
+    }
+
+    private static <T extends Event> T begin(T event) {
+        if(!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event, and returns true if it should be committed
+     */
+    private static boolean end(Event event) {
+        if(event==null)
+            return false;
+        event.end();
+        return event.shouldCommit();
+    }
+
+    public static Object beginParse() {
+        return begin(new ParseEvent());
+    }
+
+    public static void endParse(Object event,File file,boolean dom) {
+        ParseEvent e=(ParseEvent)event;
+        if(end(e)) {
+            e.path=file.getPath();
+            e.bytes=file.length();
+            e.dom=dom;
+            e.commit();
+        }
+    }
+
+    public static Object beginBuildSet() {
+        return begin(new BuildSetEvent());
+    }
+
+    public static void endBuildSet(Object event,int artifacts,int projects) {
+        BuildSetEvent e=(BuildSetEvent)event;
+        if(end(e)) {
+            e.artifacts=artifacts;
+            e.projects=projects;
+            e.commit();
+        }
+    }
+
+    public static Object beginVersionUpdate() {
+        return begin(new VersionUpdateEvent());
+    }
+
+    public static void endVersionUpdate(Object event,int artifacts,int poms,int changed) {
+        VersionUpdateEvent e=(VersionUpdateEvent)event;
+        if(end(e)) {
+            e.artifacts=artifacts;
+            e.poms=poms;
+            e.changed=changed;
+            e.commit();
+        }
+    }
+
+    public static Object beginWrite() {
+        return begin(new WriteEvent());
+    }
+
+    public static void endWrite(Object event,File file,long bytes,boolean sync) {
+        WriteEvent e=(WriteEvent)event;
+        if(end(e)) {
+            e.path=file.getPath();
+            e.bytes=bytes;
+            e.sync=sync;
+            e.commit();
+        }
+    }
+
+    public static Object beginFragment() {
+        return begin(new FragmentEvent());
+    }
+
+    public static void endFragment(Object event,File file,String fragment,String result) {
+        FragmentEvent e=(FragmentEvent)event;
+        if(end(e)) {
+            e.path=file.getPath();
+            e.fragment=fragment;
+            e.result=result;
+            e.commit();
+        }
+    }
+}